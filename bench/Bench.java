@@ -0,0 +1,144 @@
+/*
+ * Lunchpad - A Launchpad/Soundboard application.
+ * This file is part of Lunchpad.
+ *
+ * Lunchpad is free software: you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * Lunchpad is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Lunchpad. If not, see
+ * <https://www.gnu.org/licenses/>.
+ * */
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * A small benchmark harness, so the benchmarks run with nothing but the JDK and the jars in Packages.
+ * <pre></pre>
+ * Every benchmark is warmed up first, then run for a number of measured iterations of a fixed duration.
+ * The result is the time of a single operation, as the median and the spread of the iterations.
+ * <pre></pre>
+ * The operations that must not allocate anything, like the key press path, can also be checked with
+ * {@code assertNoAllocation(...)}, which counts the bytes allocated by the thread while it runs them.
+ * <pre></pre>
+ * The harness is configured with system properties:
+ * <pre>
+ *      bench.warmupMs      Duration of the warm-up of every benchmark (default: 1000)
+ *      bench.iterationMs   Duration of a measured iteration (default: 1000)
+ *      bench.iterations    Number of measured iterations (default: 5)
+ *      bench.filter        Only run the benchmarks whose name contains this text
+ *      bench.csv           Also append the results to this CSV file
+ * </pre>
+ * @since 1.3
+ */
+public class Bench {
+    private static final long WARMUP_MS = Long.getLong("bench.warmupMs", 1000);
+    private static final long ITERATION_MS = Long.getLong("bench.iterationMs", 1000);
+    private static final int ITERATIONS = Integer.getInteger("bench.iterations", 5);
+    private static final String FILTER = System.getProperty("bench.filter", "");
+    private static final String CSV = System.getProperty("bench.csv");
+    private static final int ALLOCATION_OPERATIONS = 10_000; // Operations of a round of assertNoAllocation(...)
+    private static final int ALLOCATION_ROUNDS = 5;          // Rounds run by assertNoAllocation(...) at most
+
+    // The results of the operations are summed here, so the JIT can't drop an operation whose result is unused.
+    private static long blackhole;
+
+    /** A single benchmarked operation. Its result is consumed by the harness. */
+    public interface Operation {
+        long run() throws Exception;
+    }
+
+    /**
+     * Runs and reports a benchmark, unless it is excluded by bench.filter.
+     * @param name Name of the benchmark, for example {@code mapping.read}.
+     * @param operation The operation to be measured.
+     * @throws Exception If the operation fails.
+     * @since 1.3
+     */
+    public static void run(String name, Operation operation) throws Exception {
+        if (!name.contains(FILTER)) return;
+
+        runFor(WARMUP_MS, operation);
+        double[] nanosPerOp = new double[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) nanosPerOp[i] = runFor(ITERATION_MS, operation);
+        Arrays.sort(nanosPerOp);
+        double median = nanosPerOp[ITERATIONS / 2], min = nanosPerOp[0], max = nanosPerOp[ITERATIONS - 1];
+
+        System.out.println(String.format(Locale.ROOT, "%-28s %14s/op  (min %s, max %s)",
+                name, format(median), format(min), format(max)));
+        if (CSV != null) {
+            try (Writer out = new FileWriter(CSV, true)) {
+                out.write(String.format(Locale.ROOT, "%s,%.1f,%.1f,%.1f%n", name, median, min, max));
+            }
+        }
+    }
+
+    /**
+     * Checks that the operation allocates nothing once it is warmed up, unless it is excluded by bench.filter.
+     * Does nothing if the JVM cannot count the allocations of a thread.
+     * @param name Name of the check, usually the name of the benchmark of the operation.
+     * @param operation The operation to be checked.
+     * @throws IllegalStateException If the operation allocated memory.
+     * @throws Exception If the operation fails.
+     * @since 1.3
+     */
+    public static void assertNoAllocation(String name, Operation operation) throws Exception {
+        if (!name.contains(FILTER)) return;
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) return;
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        if (!allocations.isThreadAllocatedMemorySupported() || !allocations.isThreadAllocatedMemoryEnabled()) return;
+
+        runFor(WARMUP_MS, operation);
+        long thread = Thread.currentThread().getId();
+        // Reading the counter can allocate a little by itself, so that is measured first and left out.
+        long overhead = -allocations.getThreadAllocatedBytes(thread) + allocations.getThreadAllocatedBytes(thread);
+        // The JIT can still be compiling after a short warm-up and allocate once, so the best of a few rounds
+        // counts. An allocation of the operation itself shows up in every round.
+        long allocated = Long.MAX_VALUE;
+        for (int round = 0; round < ALLOCATION_ROUNDS && allocated > 0; round++) {
+            long before = allocations.getThreadAllocatedBytes(thread);
+            for (int i = 0; i < ALLOCATION_OPERATIONS; i++) blackhole += operation.run();
+            allocated = Math.min(allocated, allocations.getThreadAllocatedBytes(thread) - before - overhead);
+        }
+
+        System.out.println(String.format(Locale.ROOT, "%-28s %14d B allocated in %d operations",
+                name, Math.max(0, allocated), ALLOCATION_OPERATIONS));
+        if (allocated > 0)
+            throw new IllegalStateException(name + " allocated " + allocated + " bytes, it must not allocate anything");
+    }
+
+    /** Prints the header of the report. */
+    public static void header() {
+        System.out.println(String.format(Locale.ROOT, "%-28s %17s", "Benchmark", "Time") + "   (" + ITERATIONS
+                + " x " + ITERATION_MS + " ms, " + WARMUP_MS + " ms warm-up)");
+        if (blackhole == 42) System.out.println(); // Keeps the blackhole alive.
+    }
+
+    // Runs the operation for the given duration and returns the average time of an operation in nanoseconds.
+    private static double runFor(long millis, Operation operation) throws Exception {
+        long end = System.nanoTime() + millis * 1_000_000L;
+        long operations = 0, start = System.nanoTime(), now;
+        do {
+            blackhole += operation.run();
+            operations++;
+        } while ((now = System.nanoTime()) < end);
+        return (now - start) / (double) operations;
+    }
+
+    private static String format(double nanos) {
+        if (nanos >= 1_000_000) return String.format(Locale.ROOT, "%.2f ms", nanos / 1_000_000);
+        if (nanos >= 1_000) return String.format(Locale.ROOT, "%.2f us", nanos / 1_000);
+        return String.format(Locale.ROOT, "%.1f ns", nanos);
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Lunchpad - A Launchpad/Soundboard application.
+ * This file is part of Lunchpad.
+ *
+ * Lunchpad is free software: you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * Lunchpad is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Lunchpad. If not, see
+ * <https://www.gnu.org/licenses/>.
+ * */
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * The benchmarks of the hot paths of Lunchpad: triggering and mixing voices, decoding and loading sounds,
+ * opening and saving the key mapping, opening a compiled repository pack, and listing a repository.
+ * <pre></pre>
+ * Everything runs headless. The MixerEngine writes to a NullLine and is driven block by block by the benchmark,
+ * and the sounds come from a SyntheticRepository generated in a temporary directory.
+ * <pre></pre>
+ * To run the benchmarks, compile the sources together with this folder and start this class:
+ * <pre>
+ *      javac -encoding UTF-8 -cp "Packages/*" -d out src/*.java bench/*.java
+ *      java -cp "out:src:Packages/*" LunchpadBench
+ *      java -cp "out:src:Packages/*" -Dbench.filter=mixer -Dbench.csv=results.csv LunchpadBench
+ * </pre>
+ * Besides the properties of the Bench harness, {@code bench.sounds} (default: 52) and {@code bench.seconds}
+ * (default: 1.0) set the size of the generated repository.
+ * <pre></pre>
+ * The key press path is also checked for allocations. If it allocates, the run stops with an IllegalStateException
+ * and exits with 1, so {@code -Dbench.filter=playKey} works as the verification step of a change to that path.
+ * @since 1.3
+ */
+public class LunchpadBench {
+    private static final int SOUNDS = Integer.getInteger("bench.sounds", 52);
+    private static final double SECONDS = Double.parseDouble(System.getProperty("bench.seconds", "1.0"));
+    private static final int LISTED_FILES = 2000; // Extra files in the directory listed by the Manager benchmark
+
+    public static void main(String[] args) throws Exception {
+        File directory = Files.createTempDirectory("lunchpad-bench").toFile();
+        try {
+            SyntheticRepository repository = new SyntheticRepository(directory, SOUNDS, SECONDS);
+            Bench.header();
+            mixer(repository);
+            keypress(repository);
+            loading(repository);
+            mapping(repository);
+            pack(repository);
+            index(repository);
+            listing(repository);
+        } finally {
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+
+    // Voice allocation and mixing, with every key of the keyboard mapped to a sound.
+    private static void mixer(SyntheticRepository repository) throws Exception {
+        MixerEngine engine = new MixerEngine(new NullLine(), false);
+        Sample[][] samples = new Sample[KeyMappingFile.KEYS][KeyMappingFile.CHANNELS];
+        byte[][] states = new byte[KeyMappingFile.KEYS][KeyMappingFile.CHANNELS]; // Every key is ASSIGNED
+        VoiceSettings[] settings = new VoiceSettings[KeyMappingFile.KEYS];
+        for (int i = 0; i < KeyMappingFile.KEYS; i++) {
+            samples[i][0] = Sample.load(new File(repository.directory, repository.sounds.get(i % SOUNDS)));
+            settings[i] = VoiceSettings.DEFAULT;
+        }
+        engine.publish(new KeyMap(samples, states, settings));
+
+        int[] key = {0};
+        // One trigger per block, the pace of a fast player.
+        Bench.run("mixer.trigger1+block", () -> {
+            engine.trigger(key[0]++ % KeyMappingFile.KEYS, 0, false);
+            engine.renderBlock();
+            return key[0];
+        });
+        // Eight triggers per block keep every voice busy, so most triggers take over a playing voice.
+        Bench.run("mixer.trigger8+block", () -> {
+            for (int i = 0; i < 8; i++) engine.trigger(key[0]++ % KeyMappingFile.KEYS, 0, false);
+            engine.renderBlock();
+            return key[0];
+        });
+        Bench.run("mixer.restart+block", () -> {
+            engine.trigger(key[0]++ % KeyMappingFile.KEYS, 0, true);
+            engine.renderBlock();
+            return key[0];
+        });
+        engine.shutdown();
+    }
+
+    // The path of a key press, from the SoundPlayer to the mixed block, which must not allocate anything.
+    private static void keypress(SyntheticRepository repository) throws Exception {
+        MixerEngine engine = new MixerEngine(new NullLine(), false);
+        SoundPlayer player = new SoundPlayer(engine);
+        String[][] names = KeyMappingStore.open(repository.directory, null).getNames();
+        names[0][0] = "None"; // Unassigned keys are pressed too.
+        VoiceSettings[] settings = new VoiceSettings[KeyMappingFile.KEYS];
+        Arrays.fill(settings, VoiceSettings.DEFAULT);
+        player.updateKeyMap(names, settings);
+        switchTo(player, repository.directory.getPath() + File.separator, repository.sounds);
+
+        int[] key = {0};
+        Bench.Operation press = () -> {
+            int pressed = key[0]++ % (KeyMappingFile.KEYS * KeyMappingFile.CHANNELS);
+            if (!player.playKey(pressed / KeyMappingFile.CHANNELS, pressed % KeyMappingFile.CHANNELS, false,
+                    System.nanoTime())) throw new IllegalStateException("Key " + pressed + " is missing its sound");
+            engine.renderBlock();
+            return key[0];
+        };
+        Bench.run("player.playKey+block", press);
+        Bench.assertNoAllocation("player.playKey+block", press);
+        engine.shutdown();
+    }
+
+    // Decoding a file, and loading sounds through the SoundPlayer.
+    private static void loading(SyntheticRepository repository) throws Exception {
+        int[] next = {0};
+        Bench.run("decode.sample", () -> {
+            File file = new File(repository.directory, repository.sounds.get(next[0]++ % SOUNDS));
+            return Sample.load(file).frames;
+        });
+
+        SoundPlayer player = new SoundPlayer(new MixerEngine(new NullLine(), false));
+        String directory = repository.directory.getPath() + File.separator;
+        String[][] names = KeyMappingStore.open(repository.directory, null).getNames();
+        VoiceSettings[] settings = new VoiceSettings[KeyMappingFile.KEYS];
+        Arrays.fill(settings, VoiceSettings.DEFAULT);
+        player.updateKeyMap(names, settings);
+
+        String first = repository.sounds.get(0);
+        File firstFile = new File(repository.directory, first);
+        Bench.run("player.uploadSound.cached", () -> {
+            player.uploadSound(first, firstFile.getPath());
+            return 1;
+        });
+        // A changed modification time makes the cache decode the file again.
+        long[] modified = {firstFile.lastModified()};
+        Bench.run("player.uploadSound.changed", () -> {
+            firstFile.setLastModified(modified[0] += 1000);
+            player.uploadSound(first, firstFile.getPath());
+            return 1;
+        });
+        // Switching back to a repository whose sounds are still cached.
+        Bench.run("player.reloadRepository", () -> {
+            switchTo(player, directory, repository.sounds);
+            return 1;
+        });
+        // Going back and forth between two repositories, like in the middle of a show.
+        SyntheticRepository second = new SyntheticRepository(new File(repository.directory, "second"), SOUNDS, SECONDS);
+        String[] directories = {directory, second.directory.getPath() + File.separator};
+        int[] switches = {0};
+        Bench.run("player.switchRepositories", () -> {
+            switchTo(player, directories[switches[0]++ % 2], repository.sounds);
+            return 1;
+        });
+    }
+
+    // Replaces the sounds of the player with the given ones and waits until they are loaded.
+    private static void switchTo(SoundPlayer player, String directory, List<String> sounds) throws InterruptedException {
+        player.clearPlayer();
+        CountDownLatch finished = new CountDownLatch(1);
+        player.uploadSounds(directory, sounds, new SoundPlayer.LoadListener() {
+            @Override public void soundLoaded(SoundPlayer.Loading loading, String name) {}
+            @Override public void loadFinished(SoundPlayer.Loading loading) { finished.countDown(); }
+        });
+        finished.await();
+    }
+
+    // Opening the key mapping, saving a single change, compacting it, and writing the whole keymappings.lpr.
+    private static void mapping(SyntheticRepository repository) throws Exception {
+        KeyMappingStore store = KeyMappingStore.open(repository.directory, null);
+        String[][] names = store.getNames();
+        VoiceSettings[] settings = store.getSettings();
+        Bench.run("mapping.open", () -> KeyMappingStore.open(repository.directory, null).getNames().length);
+        int[] change = {0};
+        Bench.run("mapping.update", () -> {
+            settings[0] = new VoiceSettings(6, change[0]++ % 2, StealPolicy.OLDEST, false);
+            store.update(names, settings);
+            return 1;
+        });
+        Bench.run("mapping.compact", () -> {
+            store.compact();
+            return 1;
+        });
+        store.close();
+        File legacy = new File(repository.directory, KeyMappingFile.NAME);
+        Bench.run("mapping.writeLegacy", () -> {
+            KeyMappingFile.write(legacy, names);
+            return 1;
+        });
+    }
+
+    // Opening the compiled pack of the repository and mapping every sound of it, like a repository switch.
+    private static void pack(SyntheticRepository repository) throws Exception {
+        File file = new File(repository.directory, RepositoryPack.FILE_NAME);
+        RepositoryPack.compile(repository.directory, file, Runtime.getRuntime().availableProcessors(), null);
+        Bench.run("pack.open", () -> RepositoryPack.open(file).size());
+        Bench.run("pack.openAndMap", () -> {
+            RepositoryPack pack = RepositoryPack.open(file);
+            int frames = 0;
+            for (String name : repository.sounds) {
+                File sound = new File(repository.directory, name);
+                frames += pack.load(pack.find(name, sound.length(), sound.lastModified())).frames;
+            }
+            return frames;
+        });
+        file.delete();
+    }
+
+    // Indexing every sound of the repository from scratch, and reading the saved index when nothing has changed.
+    private static void index(SyntheticRepository repository) throws Exception {
+        File file = new File(repository.directory, SoundIndex.FILE_NAME);
+        Bench.run("index.build", () -> {
+            int frames = 0;
+            for (String name : repository.sounds) {
+                File sound = new File(repository.directory, name);
+                frames += SoundIndex.index(sound, name, sound.length(), sound.lastModified()).frames;
+            }
+            return frames;
+        });
+        SoundIndex.of(repository.directory).update();
+        Bench.run("index.update", () -> SoundIndex.of(repository.directory).update());
+        file.delete();
+    }
+
+    // Listing a repository the way the managers do.
+    private static void listing(SyntheticRepository repository) throws Exception {
+        repository.addEmptyFiles(LISTED_FILES, ".wav");
+        Bench.run("manager.list", () -> Manager.listItems(repository.directory, ".wav").size());
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Lunchpad - A Launchpad/Soundboard application.
+ * This file is part of Lunchpad.
+ *
+ * Lunchpad is free software: you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * Lunchpad is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Lunchpad. If not, see
+ * <https://www.gnu.org/licenses/>.
+ * */
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.Control;
+import javax.sound.sampled.Line;
+import javax.sound.sampled.LineListener;
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * A SourceDataLine that discards everything written to it without waiting, so a MixerEngine can run headless
+ * and as fast as the CPU allows.
+ * @since 1.3
+ */
+public class NullLine implements SourceDataLine {
+    private AudioFormat format;
+    private int bufferSize;
+    private long framesWritten;
+    private boolean open, running;
+
+    @Override public void open(AudioFormat format, int bufferSize) {
+        this.format = format;
+        this.bufferSize = bufferSize;
+        open = true;
+    }
+    @Override public void open(AudioFormat format) { open(format, format.getFrameSize() * 4096); }
+    @Override public void open() { open(MixerEngine.FORMAT); }
+    @Override public void close() { open = running = false; }
+    @Override public boolean isOpen() { return open; }
+
+    @Override public int write(byte[] b, int off, int len) {
+        framesWritten += len / format.getFrameSize();
+        return len;
+    }
+    @Override public int available() { return bufferSize; } // Nothing stays queued.
+    @Override public int getBufferSize() { return bufferSize; }
+    @Override public void drain() {}
+    @Override public void flush() {}
+
+    @Override public void start() { running = true; }
+    @Override public void stop() { running = false; }
+    @Override public boolean isRunning() { return running; }
+    @Override public boolean isActive() { return running; }
+
+    @Override public AudioFormat getFormat() { return format; }
+    @Override public int getFramePosition() { return (int) framesWritten; }
+    @Override public long getLongFramePosition() { return framesWritten; }
+    @Override public long getMicrosecondPosition() { return (long) (framesWritten * 1_000_000L / format.getFrameRate()); }
+    @Override public float getLevel() { return AudioSystem.NOT_SPECIFIED; }
+
+    @Override public Line.Info getLineInfo() { return new Line.Info(SourceDataLine.class); }
+    @Override public Control[] getControls() { return new Control[0]; }
+    @Override public boolean isControlSupported(Control.Type control) { return false; }
+    @Override public Control getControl(Control.Type control) { throw new IllegalArgumentException(control + " is not supported"); }
+    @Override public void addLineListener(LineListener listener) {}
+    @Override public void removeLineListener(LineListener listener) {}
+}
@@ -0,0 +1,100 @@
+/*
+ * Lunchpad - A Launchpad/Soundboard application.
+ * This file is part of Lunchpad.
+ *
+ * Lunchpad is free software: you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * Lunchpad is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Lunchpad. If not, see
+ * <https://www.gnu.org/licenses/>.
+ * */
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generates a repository of synthetic WAV files and a key mapping that uses them, so the benchmarks don't depend
+ * on the repositories of the user.
+ * <pre></pre>
+ * The files cycle through the formats found in real repositories (22.05, 44.1 and 48 kHz; 8, 16 and 24 bits;
+ * mono and stereo), so decoding also exercises the conversion to the format of the MixerEngine.
+ * @since 1.3
+ */
+public class SyntheticRepository {
+    private static final float[] RATES = {22050f, 44100f, 48000f};
+    private static final int[] BITS = {8, 16, 24};
+
+    public final File directory;
+    public final List<String> sounds = new ArrayList<>();
+
+    /**
+     * Writes the sounds and the mapping into the directory. The first sounds are assigned to the keys,
+     * channel by channel.
+     * @param directory Where the repository is created. Created if it doesn't exist.
+     * @param count Number of sounds.
+     * @param seconds Duration of every sound.
+     * @throws IOException If the files cannot be written.
+     * @since 1.3
+     */
+    public SyntheticRepository(File directory, int count, double seconds) throws IOException {
+        this.directory = directory;
+        if (!directory.isDirectory() && !directory.mkdirs()) throw new IOException("Cannot create " + directory);
+
+        for (int i = 0; i < count; i++) {
+            String name = "sound_" + i + ".wav";
+            writeWav(new File(directory, name), RATES[i % 3], BITS[(i / 3) % 3], 1 + i % 2, seconds, 220 + 20 * i);
+            sounds.add(name);
+        }
+
+        String[][] names = new String[KeyMappingFile.KEYS][KeyMappingFile.CHANNELS];
+        for (int i = 0; i < KeyMappingFile.KEYS * KeyMappingFile.CHANNELS; i++)
+            names[i / KeyMappingFile.CHANNELS][i % KeyMappingFile.CHANNELS] = i < count ? sounds.get(i) : "None";
+        KeyMappingFile.write(new File(directory, KeyMappingFile.NAME), names);
+    }
+
+    /**
+     * Creates empty files with the given suffix, so listings can be measured on large directories without
+     * writing audio.
+     * @param count Number of files.
+     * @param suffix Suffix of the files, for example ".wav".
+     * @throws IOException If a file cannot be created.
+     * @since 1.3
+     */
+    public void addEmptyFiles(int count, String suffix) throws IOException {
+        for (int i = 0; i < count; i++) new File(directory, "empty_" + i + suffix).createNewFile();
+    }
+
+    // Writes a sine tone, which is enough to make every sample value different.
+    private static void writeWav(File file, float rate, int bits, int channels, double seconds, double frequency)
+            throws IOException {
+        AudioFormat format = new AudioFormat(rate, bits, channels, bits != 8, false);
+        int frames = (int) (rate * seconds), frameSize = format.getFrameSize(), bytes = bits / 8;
+        byte[] data = new byte[frames * frameSize];
+        for (int i = 0; i < frames; i++) {
+            double value = Math.sin(2 * Math.PI * frequency * i / rate) * 0.5;
+            for (int c = 0; c < channels; c++) {
+                int offset = i * frameSize + c * bytes;
+                if (bits == 8) {
+                    data[offset] = (byte) ((int) (value * 127) + 128); // 8-bit WAV is unsigned
+                } else {
+                    int sample = (int) (value * ((1 << (bits - 1)) - 1));
+                    for (int b = 0; b < bytes; b++) data[offset + b] = (byte) (sample >> (8 * b));
+                }
+            }
+        }
+        AudioSystem.write(new AudioInputStream(new ByteArrayInputStream(data), format, frames),
+                AudioFileFormat.Type.WAVE, file);
+    }
+}
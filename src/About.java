@@ -15,12 +15,9 @@
  * */
 
 import javax.swing.JLabel;
-import javax.swing.ImageIcon;
 import javax.swing.JTextArea;
 import javax.swing.JScrollPane;
 import javax.swing.JButton;
-import javax.imageio.ImageIO;
-import java.awt.Image;
 import java.awt.Font;
 import java.io.BufferedReader;
 import java.io.File;
@@ -29,7 +26,6 @@ import java.io.InputStreamReader;
 import java.nio.Buffer;
 import java.nio.CharBuffer;
 import java.util.Locale;
-import java.util.Objects;
 import java.util.ResourceBundle;
 import java.util.Scanner;
 
@@ -57,16 +53,11 @@ public class About {
         WindowActions.centerWindow(dialog);
         dialog.setModal(true);
 
-        try{
-            // Initiating a new Label with the image file containing the application's logo.
-            JLabel logo = new JLabel(new ImageIcon(ImageIO.read(Objects.requireNonNull(getClass().getResource("/Artworks/logo.png")))
-                    .getScaledInstance(270, 180, Image.SCALE_SMOOTH)));
-            // Setting the position and dimension of the logo label.
-            logo.setBounds(10, 0,250, 70);
-            dialog.mainPanel.add(logo);
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+        // Initiating a new Label with the image file containing the application's logo.
+        JLabel logo = new JLabel(Artwork.icon("logo.png", 270, 180));
+        // Setting the position and dimension of the logo label.
+        logo.setBounds(10, 0,250, 70);
+        dialog.mainPanel.add(logo);
 
         // Initiating the JLabel containing the information about the application.
         JLabel[] text = new JLabel[2];
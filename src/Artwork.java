@@ -0,0 +1,131 @@
+/*
+ * Lunchpad - A Launchpad/Soundboard application.
+ * This file is part of Lunchpad.
+ *
+ * Lunchpad is free software: you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * Lunchpad is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Lunchpad. If not, see
+ * <https://www.gnu.org/licenses/>.
+ * */
+
+import javax.imageio.ImageIO;
+import javax.swing.Icon;
+import javax.swing.ImageIcon;
+import java.awt.Component;
+import java.awt.Graphics;
+import java.awt.GraphicsEnvironment;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The registry of the artworks of the application, which decodes every PNG under /Artworks once and scales it
+ * once for every size it is shown at.
+ * <pre></pre>
+ * The icons are shared by every window, so opening a dialog again doesn't read or scale anything. On screens
+ * that are scaled, for example Retina screens, the artwork is scaled to the pixels of the screen and drawn at
+ * the requested size, so it stays sharp. Every scale of the screen has its own icons.
+ * <pre></pre>
+ * {@code warmUp()} prepares the icons of the windows ahead of time, so that the first window doesn't wait for
+ * them either. The registry can be used from any thread.
+ * <pre>Ex:
+ *      {@code
+ *      JButton play = new JButton(Artwork.icon("play.png", 15, 15));
+ *      }
+ * </pre>
+ * @since 1.3
+ */
+public final class Artwork {
+    private static final ConcurrentHashMap<String, BufferedImage> sources = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Icon> icons = new ConcurrentHashMap<>();
+
+    private Artwork() {}
+
+    /**
+     * Returns the artwork scaled to the given size, decoding and scaling it only the first time it is requested
+     * at that size.
+     * @param name Filename of the artwork in /Artworks.
+     * @param width Width of the icon.
+     * @param height Height of the icon.
+     * @return The icon. The same icon is returned to every caller, so it must not be changed.
+     * @since 1.3
+     */
+    public static Icon icon(String name, int width, int height) {
+        double scale = screenScale();
+        return icons.computeIfAbsent(name + '@' + width + 'x' + height + '@' + scale,
+                key -> scale(name, width, height, scale));
+    }
+
+    /**
+     * Decodes and scales the icons that the windows use. Meant to run in the background during the startup.
+     * @since 1.3
+     */
+    public static void warmUp() {
+        for (String name : new String[]{"shift.png", "add_sound.png", "manage_rep.png", "recorder.png",
+                "record.png", "stop.png", "play.png"})
+            icon(name, 15, 15);
+        icon("channel_left.png", 25, 25);
+        icon("channel_right.png", 25, 25);
+        icon("logo.png", 120, 80);
+        icon("logo.png", 270, 180);
+    }
+
+    private static Icon scale(String name, int width, int height, double scale) {
+        BufferedImage source = sources.computeIfAbsent(name, Artwork::read);
+        if (scale == 1) return new ImageIcon(source.getScaledInstance(width, height, Image.SCALE_SMOOTH));
+        // ImageIcon waits until the scaled image is produced, so it is ready to be drawn.
+        ImageIcon scaled = new ImageIcon(source.getScaledInstance((int) Math.round(width * scale),
+                (int) Math.round(height * scale), Image.SCALE_SMOOTH));
+        return new ScaledIcon(scaled.getImage(), width, height);
+    }
+
+    private static BufferedImage read(String name) {
+        try {
+            return ImageIO.read(Objects.requireNonNull(Artwork.class.getResource("/Artworks/" + name)));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // The scale of the default screen, 2 for Retina screens. Always 1 before Java 9.
+    private static double screenScale() {
+        if (GraphicsEnvironment.isHeadless()) return 1;
+        return Math.max(1, GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice()
+                .getDefaultConfiguration().getDefaultTransform().getScaleX());
+    }
+
+    // An image with the pixels of the screen, drawn at the size of the icon.
+    private static final class ScaledIcon implements Icon {
+        private final Image image;
+        private final int width, height;
+
+        ScaledIcon(Image image, int width, int height) {
+            this.image = image;
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public void paintIcon(Component c, Graphics g, int x, int y) {
+            g.drawImage(image, x, y, width, height, c);
+        }
+
+        @Override
+        public int getIconWidth() {
+            return width;
+        }
+
+        @Override
+        public int getIconHeight() {
+            return height;
+        }
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Lunchpad - A Launchpad/Soundboard application.
+ * This file is part of Lunchpad.
+ *
+ * Lunchpad is free software: you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * Lunchpad is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Lunchpad. If not, see
+ * <https://www.gnu.org/licenses/>.
+ * */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The cache of decoded sounds on disk, which keeps them across the restarts of the application.
+ * <pre></pre>
+ * Every decoded sound is written in the format of the MixerEngine into "LunchPad Cache", next to
+ * "LunchPad Repositories". The name of the cached file is made of the path, the size and the modification time
+ * of the audio file, so an audio file that changes simply gets a new cached file. The next time the sound is
+ * loaded, even after a restart, its cached file is memory-mapped instead of decoding the audio file again.
+ * <pre></pre>
+ * The cached files are written by a background thread, so decoding a sound never waits for the disk. The sounds
+ * waiting to be written stay in memory outside the audio memory budget, so when the disk lags behind and they add
+ * up to more than 64 MB, the next sounds aren't cached this time. They are cached the next time they are decoded.
+ * <pre></pre>
+ * Every cached file starts with the number of frames of the sound, and is forced to the disk before it is renamed
+ * into place. A cached file whose size doesn't match its frames, like one left over by a crash, is deleted instead
+ * of being loaded.
+ * <pre></pre>
+ * When the cache grows over its capacity, the files that were used least recently are deleted.
+ * The capacity is {@code lunchpad.diskCacheMB} megabytes, 4096 by default. 0 disables the cache.
+ * <pre>Ex:
+ *      {@code
+ *      File cached = diskCache.find(my_file, my_file.length(), my_file.lastModified());
+ *      Sample sample = cached != null ? diskCache.load(cached, my_file.getName()) : Sample.load(my_file);
+ *      }
+ * </pre>
+ * @since 1.3
+ */
+public final class AudioDiskCache {
+    public static final File DEFAULT_DIRECTORY = new File(System.getProperty("user.home"), "LunchPad Cache");
+    public static final long DEFAULT_CAPACITY = Long.getLong("lunchpad.diskCacheMB", 4096) * 1024 * 1024;
+    private static final String SUFFIX = ".pcm";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    private static final int MAGIC = 0x31435044;     // "DPC1" read as a little-endian int
+    private static final int HEADER_BYTES = 16;      // MAGIC, frames, and room for later versions
+    private static final long MAX_PENDING_BYTES = 64L * 1024 * 1024; // Decoded sounds waiting for the writer, at most
+
+    private final File directory;
+    private final long capacity;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "Lunchpad Disk Cache");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private long size = -1; // Bytes in the directory, only used by the writer thread. -1 until it is counted
+    private final AtomicLong pendingBytes = new AtomicLong(); // Memory of the sounds waiting to be written
+
+    /**
+     * @param directory Where the decoded sounds are kept. Created if it doesn't exist.
+     * @param capacity Maximum number of bytes in the directory.
+     * @throws IOException If the directory cannot be created.
+     * @since 1.3
+     */
+    public AudioDiskCache(File directory, long capacity) throws IOException {
+        Files.createDirectories(directory.toPath());
+        this.directory = directory;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Opens the cache in the default directory with the default capacity.
+     * @return The cache, or null if it is disabled or if its directory cannot be created.
+     * @since 1.3
+     */
+    public static AudioDiskCache openDefault() {
+        if (DEFAULT_CAPACITY <= 0) return null;
+        try {
+            return new AudioDiskCache(DEFAULT_DIRECTORY, DEFAULT_CAPACITY);
+        } catch (IOException e) {
+            System.out.println("The disk cache is disabled: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Finds the cached sound of an audio file and marks it as recently used.
+     * @param source The audio file.
+     * @param length Size of the audio file.
+     * @param modified Modification time of the audio file.
+     * @return The cached file, or null if the sound isn't cached in this version of the file.
+     * @since 1.3
+     */
+    public File find(File source, long length, long modified) {
+        File cached = new File(directory, key(source, length, modified));
+        if (!cached.isFile()) return null;
+        cached.setLastModified(System.currentTimeMillis()); // The modification time orders the eviction.
+        return cached;
+    }
+
+    /**
+     * @return The memory that the sample of the cached file keeps resident once it is loaded.
+     * @since 1.3
+     */
+    public static long residentBytes(File cached) {
+        return Math.min(Math.max(0, cached.length() - HEADER_BYTES) / MixerEngine.FORMAT.getFrameSize(),
+                Sample.HEAD_FRAMES) * MixerEngine.FORMAT.getFrameSize();
+    }
+
+    /**
+     * Maps a cached file returned by {@code find(...)}. Only its head is read right away, see
+     * {@code Sample.mapped(...)}.
+     * @param cached The cached file.
+     * @param name Filename of the sound.
+     * @return The sample, or null if the cached file is gone, cannot be read or is damaged. A damaged file is deleted.
+     * @since 1.3
+     */
+    public Sample load(File cached, String name) {
+        try (RandomAccessFile input = new RandomAccessFile(cached, "r"); FileChannel channel = input.getChannel()) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining() && channel.read(header) != -1);
+            header.flip();
+            long length = header.remaining() == HEADER_BYTES && header.getInt() == MAGIC
+                    ? (header.getInt() & 0xFFFFFFFFL) * MixerEngine.FORMAT.getFrameSize() : -1;
+            if (length >= 0 && length <= Integer.MAX_VALUE && HEADER_BYTES + length == channel.size()) {
+                ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, length)
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                return Sample.mapped(name, data.asShortBuffer());
+            }
+        } catch (IOException e) {
+            System.out.println("Cannot read the cached sound of " + name + ": " + e.getMessage());
+            return null;
+        }
+        System.out.println("The cached sound of " + name + " is damaged, it is decoded again.");
+        cached.delete(); // Closed first, a file that is open cannot be deleted on some systems.
+        return null;
+    }
+
+    /**
+     * Writes the decoded sound of an audio file into the cache, in the background. Nothing is written if too many
+     * sounds are waiting to be written already.
+     * @param source The audio file.
+     * @param length Size of the audio file when it was decoded.
+     * @param modified Modification time of the audio file when it was decoded.
+     * @param sample The decoded sound.
+     * @since 1.3
+     */
+    public void store(File source, long length, long modified, Sample sample) {
+        String key = key(source, length, modified);
+        long bytes = sample.bytes;
+        long pending = pendingBytes.addAndGet(bytes);
+        if (pending > MAX_PENDING_BYTES && pending > bytes) { // A single large sound is still written.
+            pendingBytes.addAndGet(-bytes); // The disk is behind, this sound is cached another time.
+            return;
+        }
+        writer.execute(() -> {
+            File cached = new File(directory, key);
+            File temporary = new File(directory, key + TEMPORARY_SUFFIX);
+            try {
+                if (size < 0) size = count();
+                if (cached.isFile()) return;
+                write(temporary, sample);
+                Files.move(temporary.toPath(), cached.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                size += cached.length();
+                if (size > capacity) evict();
+            } catch (IOException e) {
+                System.out.println("Cannot cache " + source.getName() + ": " + e.getMessage());
+                temporary.delete();
+            } finally {
+                pendingBytes.addAndGet(-bytes);
+            }
+        });
+    }
+
+    // Writes the header and the whole sound of the sample in the format of the MixerEngine, and forces it to the disk.
+    private static void write(File target, Sample sample) throws IOException {
+        ShortBuffer pcm = (sample.isStreamed() ? sample.stream : sample.pcm).duplicate();
+        pcm.position(0).limit(sample.frames * MixerEngine.CHANNELS);
+        ByteBuffer chunk = ByteBuffer.allocateDirect(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+        try (RandomAccessFile output = new RandomAccessFile(target, "rw"); FileChannel channel = output.getChannel()) {
+            channel.truncate(0);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(sample.frames).clear();
+            while (header.hasRemaining()) channel.write(header);
+            while (pcm.hasRemaining()) {
+                chunk.clear();
+                ShortBuffer part = pcm.duplicate();
+                part.limit(part.position() + Math.min(part.remaining(), chunk.capacity() / 2));
+                chunk.asShortBuffer().put(part);
+                chunk.limit((part.position() - pcm.position()) * 2);
+                pcm.position(part.position());
+                while (chunk.hasRemaining()) channel.write(chunk);
+            }
+            channel.force(true); // The file is complete on the disk before it gets its final name.
+        }
+    }
+
+    // Adds up the cached files, and deletes the files that were left half-written by a previous run.
+    private long count() {
+        long total = 0;
+        File[] files = directory.listFiles();
+        if (files == null) return 0;
+        for (File file : files) {
+            if (file.getName().endsWith(TEMPORARY_SUFFIX)) file.delete();
+            else if (file.getName().endsWith(SUFFIX)) total += file.length();
+        }
+        return total;
+    }
+
+    // Deletes the least recently used files until the cache fits in its capacity.
+    private void evict() {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (files == null) return;
+        long[] used = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            used[i] = files[i].lastModified(); // Read once, the sort needs stable values.
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingLong(i -> used[i]));
+        for (int i = 0; i < order.length && size > capacity; i++) {
+            File file = files[order[i]];
+            long length = file.length();
+            if (file.delete()) size -= length; // A file that is mapped cannot be deleted on some systems.
+        }
+    }
+
+    // The name of the cached file of an audio file: a hash of its path, then its size and modification time.
+    private static String key(File source, long length, long modified) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1")
+                    .digest(source.getAbsolutePath().getBytes(StandardCharsets.UTF_8));
+            StringBuilder key = new StringBuilder();
+            for (byte b : hash) key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            return key.append('-').append(length).append('-').append(modified).append(SUFFIX).toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e); // Every Java platform has SHA-1.
+        }
+    }
+}
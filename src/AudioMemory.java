@@ -0,0 +1,90 @@
+/*
+ * Lunchpad - A Launchpad/Soundboard application.
+ * This file is part of Lunchpad.
+ *
+ * Lunchpad is free software: you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * Lunchpad is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Lunchpad. If not, see
+ * <https://www.gnu.org/licenses/>.
+ * */
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The class that accounts for the memory used by decoded audio.
+ * <pre></pre>
+ * Samples are stored off-heap, in direct buffers, so they don't grow the heap or the GC pauses. Since the JVM
+ * doesn't tell when the direct memory runs out until it's too late, every sample reserves its size from
+ * a global budget before it is decoded and releases it when it is dropped.
+ * <pre></pre>
+ * The budget can be set in megabytes with the system property {@code lunchpad.audioBudgetMB}, for example
+ * {@code java -Dlunchpad.audioBudgetMB=2048 -jar Lunchpad.jar}. By default, it is three quarters of the
+ * maximum heap size, which is also the default limit of the direct memory.
+ * @since 1.3
+ */
+public class AudioMemory {
+    public static final long BUDGET = Long.getLong("lunchpad.audioBudgetMB",
+            Runtime.getRuntime().maxMemory() / 4 * 3 >> 20) << 20;
+    private static final AtomicLong used = new AtomicLong();
+
+    /**
+     * Reserves the given amount of bytes from the budget.
+     * @param bytes The amount of memory to reserve.
+     * @return false if the reservation would exceed the budget. In that case nothing is reserved.
+     * @since 1.3
+     */
+    public static boolean reserve(long bytes) {
+        long current;
+        do {
+            current = used.get();
+            if (current + bytes > BUDGET) return false;
+        } while (!used.compareAndSet(current, current + bytes));
+        return true;
+    }
+
+    /**
+     * Changes the reserved amount without checking the budget. Used to correct a reservation that was
+     * made from an estimation, once the actual size is known.
+     * @param bytes The amount of memory to add. Negative values release memory.
+     * @since 1.3
+     */
+    public static void adjust(long bytes) {
+        used.addAndGet(bytes);
+    }
+
+    /**
+     * Gives back the given amount of bytes to the budget.
+     * @param bytes The amount of memory to release.
+     * @since 1.3
+     */
+    public static void release(long bytes) {
+        used.addAndGet(-bytes);
+    }
+
+    /**
+     * @return The amount of memory that is reserved at the moment.
+     * @since 1.3
+     */
+    public static long used() {
+        return used.get();
+    }
+
+    /**
+     * Thrown when a sample doesn't fit in the budget, even after every evictable sample has been dropped.
+     * @since 1.3
+     */
+    public static class BudgetExceededException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        public BudgetExceededException(String name, long bytes) {
+            super(name + " needs " + (bytes >> 10) + " KiB of audio memory, "
+                    + ((BUDGET - used()) >> 10) + " KiB of " + (BUDGET >> 10) + " KiB is free.");
+        }
+    }
+}
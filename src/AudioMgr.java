@@ -13,15 +13,18 @@
 * You should have received a copy of the GNU General Public License along with Lunchpad. If not, see
 * <https://www.gnu.org/licenses/>.
 * */
-import javax.imageio.ImageIO;
 import javax.sound.sampled.LineUnavailableException;
+import javax.swing.DefaultListCellRenderer;
 import javax.swing.Icon;
-import javax.swing.ImageIcon;
 import javax.swing.JButton;
-import java.awt.Image;
+import javax.swing.JList;
+import javax.swing.SwingUtilities;
+import java.awt.Component;
 import java.io.File;
 import java.io.IOException;
-import java.util.Objects;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.ResourceBundle;
 
 import org.apache.commons.io.FileUtils;
@@ -51,6 +54,7 @@ public class AudioMgr extends Manager {
     private final String currentRepository; // Holds the repository name to work on.
     public static final boolean MANAGE_AUDIO = false, SELECT_AUDIO = true; // Constants to be passed in the constructor
     private final boolean mode; // The mode that will specify
+    private final SoundIndex soundIndex; // What is known about the sounds of the repository
     private static ResourceBundle bundleAudio = ResourceBundle.getBundle("AudioMgrStrings");
 
     /**
@@ -66,6 +70,12 @@ public class AudioMgr extends Manager {
         super(path);                  // Superclass' constructor should be getting the path only.
         refresh(".wav"); // Refreshing the contents of the JList
 
+        // The sounds that cannot be played are shown in another color, the others with their format as a tooltip.
+        // The repository was indexed when it was opened, so only the sounds that are shown without an entry
+        // are indexed here, and the selected one if it has changed.
+        soundIndex = SoundIndex.of(new File(path));
+        fileList.setCellRenderer(new IndexedCellRenderer());
+
         // Assigning the mode and repository so that they will be used later.
         this.mode = mode;
         this.currentRepository = currentRepository;
@@ -74,14 +84,7 @@ public class AudioMgr extends Manager {
         dialog.setTitle(bundleAudio.getString("AUMGR_TITLE"));
 
         // Initializing the icon that will be used in Recorder button.
-        Icon recordIcon;
-        try {
-            recordIcon = new ImageIcon(ImageIO.read(Objects.requireNonNull(getClass()
-                    .getResource("/Artworks/recorder.png")))
-                    .getScaledInstance(15, 15, Image.SCALE_SMOOTH));
-        } catch (Exception e) {
-            throw new RuntimeException();
-        }
+        Icon recordIcon = Artwork.icon("recorder.png", 15, 15);
 
         // Initializing the Recorder button
         JButton record = new JButton(recordIcon);
@@ -135,12 +138,9 @@ public class AudioMgr extends Manager {
         } catch (java.io.IOException exception) {throw new RuntimeException(exception);}
 
         if(FileOperations.filename != null){ // If user selects something
-            refresh(".wav"); // Refreshes the DLM so the newly selected file is also visible
-                                          // as long as it is a .wav file.
-
-            if(FileOperations.filename.endsWith(".wav"))
-                // Select the newly added file programmatically
-                fileList.setSelectedValue(FileOperations.filename, true);
+            // Refreshes the DLM so the newly selected file is also visible as long as it is a .wav file,
+            // and selects it programmatically once it's listed.
+            refresh(".wav", FileOperations.filename);
             dialog.setVisible(true);
 
             remove.setEnabled(true);
@@ -153,9 +153,14 @@ public class AudioMgr extends Manager {
     protected void selectList(){
         if(fileList.getSelectedValue() != null) { // Just to assure that the program doesn't attempt
                                                   // to select a null file and break itself
-            selectedFileName.setText(fileList.getSelectedValue() + bundleAudio.getString("AUMGR_SELECTED"));
+            SoundIndex.Entry entry = soundIndex.peek(fileList.getSelectedValue()); // null until it's indexed
+            boolean playable = entry == null || entry.isPlayable();
+            selectedFileName.setText(fileList.getSelectedValue()
+                    + bundleAudio.getString(playable ? "AUMGR_SELECTED" : "AUMGR_BROKEN"));
+            selectedFileName.setToolTipText(entry == null ? null : entry.describe());
+            soundIndex.indexInBackground(Collections.singletonList(fileList.getSelectedValue()), this::repaintList);
             if (mode) {
-                use.setEnabled(true);
+                use.setEnabled(playable);
             } else {
                 remove.setEnabled(true);
             }
@@ -174,4 +179,39 @@ public class AudioMgr extends Manager {
         }
         dialog.setVisible(true);
     }
+
+    // Called from the indexer thread once some sounds of the list were indexed.
+    private void repaintList() {
+        SwingUtilities.invokeLater(() -> {
+            fileList.repaint();
+            selectList(); // The selected sound may be the one that was indexed.
+        });
+    }
+
+    // Shows the sounds that cannot be played in another color, and the description of every indexed sound as its tooltip.
+    // The sounds painted without an entry are indexed in the background, once each.
+    private final class IndexedCellRenderer extends DefaultListCellRenderer {
+        private static final long serialVersionUID = 1L;
+        private final HashSet<String> requested = new HashSet<>(); // Sounds that were sent to the index
+        private final ArrayList<String> unindexed = new ArrayList<>(); // Sounds to be sent after this paint
+
+        @Override
+        public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                                                      boolean isSelected, boolean cellHasFocus) {
+            super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
+            SoundIndex.Entry entry = soundIndex.peek((String) value);
+            if(entry == null && requested.add((String) value)) {
+                if(unindexed.isEmpty()) SwingUtilities.invokeLater(this::indexUnindexed);
+                unindexed.add((String) value);
+            }
+            setToolTipText(entry == null ? null : entry.describe());
+            if(entry != null && !entry.isPlayable()) setForeground(WindowActions.HILIGHT_COLOR);
+            return this;
+        }
+
+        private void indexUnindexed() {
+            soundIndex.indexInBackground(unindexed, AudioMgr.this::repaintList);
+            unindexed.clear();
+        }
+    }
 }
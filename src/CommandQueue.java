@@ -0,0 +1,116 @@
+/*
+ * Lunchpad - A Launchpad/Soundboard application.
+ * This file is part of Lunchpad.
+ *
+ * Lunchpad is free software: you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * Lunchpad is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Lunchpad. If not, see
+ * <https://www.gnu.org/licenses/>.
+ * */
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded, lock-free queue of {@code long} values with many producers and a single consumer.
+ * <pre></pre>
+ * Every slot of the ring is allocated once, when the queue is created, so neither {@code offer} nor {@code poll}
+ * allocate anything. Each slot has a sequence number that tells whether it is free for the producer at a given
+ * position or filled for the consumer, so the producers only compete on a single compare-and-set.
+ * <pre></pre>
+ * Every value can carry a second {@code long}, its stamp, for example the time at which it was posted.
+ * The stamp of the value that was taken last is returned by {@code getLastStamp()}.
+ * <pre></pre>
+ * Only one thread may call {@code poll}.
+ * @since 1.3
+ */
+public final class CommandQueue {
+    public static final long EMPTY = Long.MIN_VALUE; // Returned by poll() when there is nothing to take
+
+    private final long[] values;
+    private final long[] stamps;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong(); // Next position to be claimed by a producer
+    private long head;                                // Next position to be read by the consumer
+    private long lastStamp;                           // Stamp of the value returned by the last poll()
+
+    /**
+     * @param capacity Maximum number of values waiting in the queue. Rounded up to a power of two.
+     * @since 1.3
+     */
+    public CommandQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        values = new long[size];
+        stamps = new long[size];
+        sequences = new AtomicLongArray(size);
+        mask = size - 1;
+        for (int i = 0; i < size; i++) sequences.set(i, i);
+    }
+
+    /**
+     * Adds a value to the queue. Can be called from any thread.
+     * @param value The value. Must not be EMPTY.
+     * @return false if the queue is full, in which case the value is not added.
+     * @since 1.3
+     */
+    public boolean offer(long value) {
+        return offer(value, 0);
+    }
+
+    /**
+     * Adds a value to the queue together with its stamp. Can be called from any thread.
+     * @param value The value. Must not be EMPTY.
+     * @param stamp The stamp of the value.
+     * @return false if the queue is full, in which case the value is not added.
+     * @since 1.3
+     */
+    public boolean offer(long value, long stamp) {
+        long position;
+        int index;
+        while (true) {
+            position = tail.get();
+            index = (int) position & mask;
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) break; // The slot is ours.
+            } else if (difference < 0) {
+                return false; // The consumer hasn't freed this slot yet, the queue is full.
+            }
+            // Otherwise another producer took the position, try the next one.
+        }
+        values[index] = value;
+        stamps[index] = stamp;
+        sequences.lazySet(index, position + 1); // Publishes the value to the consumer.
+        return true;
+    }
+
+    /**
+     * Takes the oldest value of the queue. Must only be called by the consumer thread.
+     * @return The value, or EMPTY if the queue is empty.
+     * @since 1.3
+     */
+    public long poll() {
+        int index = (int) head & mask;
+        if (sequences.get(index) != head + 1) return EMPTY;
+        long value = values[index];
+        lastStamp = stamps[index];
+        sequences.lazySet(index, head + mask + 1); // Frees the slot for the producers of the next round.
+        head++;
+        return value;
+    }
+
+    /**
+     * @return The stamp of the value returned by the last {@code poll()}. Must only be called by the consumer thread.
+     * @since 1.3
+     */
+    public long getLastStamp() {
+        return lastStamp;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Lunchpad - A Launchpad/Soundboard application.
+ * This file is part of Lunchpad.
+ *
+ * Lunchpad is free software: you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * Lunchpad is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Lunchpad. If not, see
+ * <https://www.gnu.org/licenses/>.
+ * */
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the sounds of the repositories that have the same content as the files that are being imported, so that
+ * the imported files can be hard-linked to them instead of being copied.
+ * <pre></pre>
+ * Only the sounds that have the same size as an imported file are compared, by the hash of their content that is
+ * saved in the SoundIndex of their repository. The sounds that aren't indexed yet, or have changed since, are not
+ * compared: the import runs while the user waits, so no sound of the repositories is read. The check can be turned
+ * off with {@code -Dlunchpad.duplicateCheck=false}.
+ * <pre>Ex:
+ *      {@code
+ *      File existing = DuplicateSounds.find(files, repositories).get(my_file);
+ *      if (existing == null || !DuplicateSounds.link(target, existing)) Files.copy(my_file.toPath(), target);
+ *      }
+ * </pre>
+ * @since 1.3
+ */
+final class DuplicateSounds {
+    static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("lunchpad.duplicateCheck", "true"));
+
+    private DuplicateSounds() {}
+
+    /**
+     * Looks for the files in every repository.
+     * @param files The .wav files that are being imported. The other files are ignored.
+     * @param repositories The folder that contains the repositories.
+     * @return For every file that has an identical sound in a repository, that sound, in the order of the files.
+     * @since 1.3
+     */
+    static Map<File, File> find(Collection<File> files, File repositories) {
+        HashMap<Long, List<File>> bySize = new HashMap<>();
+        for (File file : files)
+            if (file.isFile() && file.getName().endsWith(".wav"))
+                bySize.computeIfAbsent(file.length(), size -> new ArrayList<>()).add(file);
+        File[] folders = repositories.listFiles(File::isDirectory);
+        if (bySize.isEmpty() || folders == null) return new LinkedHashMap<>();
+
+        HashMap<File, String> hashes = new HashMap<>(); // Hashes of the imported files, computed when needed
+        LinkedHashMap<File, File> found = new LinkedHashMap<>();
+        for (File file : files) found.put(file, null);
+        for (File repository : folders) {
+            for (String name : Manager.listItems(repository, ".wav")) {
+                File sound = new File(repository, name);
+                List<File> candidates = bySize.get(sound.length());
+                if (candidates == null) continue;
+                SoundIndex.Entry entry = SoundIndex.of(repository).peek(name);
+                // Not indexed, outdated, or not a sound that can be played.
+                if (entry == null || entry.hash.equals("-") || entry.length != sound.length()
+                        || entry.modified != sound.lastModified()) continue;
+                for (File file : candidates) {
+                    if (found.get(file) != null || file.getAbsoluteFile().equals(sound.getAbsoluteFile())) continue;
+                    String hash = hashes.computeIfAbsent(file, DuplicateSounds::hashOrNull);
+                    if (entry.hash.equals(hash)) found.put(file, sound);
+                }
+            }
+        }
+        found.values().removeIf(sound -> sound == null);
+        return found;
+    }
+
+    /**
+     * Creates the target as a hard link to the existing file.
+     * @param target The path of the new file.
+     * @param existing The file whose content is shared.
+     * @return false if the link cannot be created, for example because the file system doesn't support hard links
+     * or because both files aren't on the same volume. The file should be copied then.
+     * @since 1.3
+     */
+    static boolean link(Path target, File existing) {
+        try {
+            Files.createLink(target, existing.toPath());
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            System.out.println(target + " cannot be linked to " + existing + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    private static String hashOrNull(File file) {
+        try {
+            return SoundIndex.hash(file);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
@@ -18,8 +18,14 @@ import java.io.File;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.ResourceBundle;
 import javax.swing.filechooser.FileNameExtensionFilter;
 import javax.swing.JFileChooser;
+import javax.swing.JOptionPane;
 import org.apache.commons.io.FileUtils;
 
 /**
@@ -37,12 +43,15 @@ import org.apache.commons.io.FileUtils;
  *         //Process the file here.
  *     }}
  * </pre>
+ * Before a sound is copied into a repository, the repositories are searched for a sound with the same content,
+ * see DuplicateSounds. If there is one, the user can choose to hard-link the new file to it instead of copying it.
  * @author İ. K. Bilir (Abes400)
  * @since 1.0
  */
 public class FileOperations {
     public static String filename; // Holds the filename selected by user
     public static int file = JFileChooser.FILES_ONLY, dir = JFileChooser.DIRECTORIES_ONLY;
+    private static ResourceBundle bundle = ResourceBundle.getBundle("ManagerStrings");
 //file : 0, dir : 1
 
     /**
@@ -78,6 +87,8 @@ public class FileOperations {
                     Path sourcePath = Paths.get(fc.getSelectedFile().getPath()), // Get the path to the item selected
                          // Concatenates selected filename to target dir. Gets the path where the item will be copied to.
                          targetPath = Paths.get(targetDir + fc.getSelectedFile().getName());
+                    File twin = findDuplicates(Collections.singletonList(fc.getSelectedFile())).get(fc.getSelectedFile());
+                    if(twin == null || !DuplicateSounds.link(targetPath, twin))
                         Files.copy(sourcePath, targetPath);
                     filename = fc.getSelectedFile().getName(); // Now filename is set to the name of the selected item
                 }
@@ -87,17 +98,42 @@ public class FileOperations {
                 fc.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
                 
                 if (fc.showOpenDialog(null) == JFileChooser.APPROVE_OPTION) {
+                    File[] items = fc.getSelectedFile().listFiles();
+                    // The sounds of the folder that the repositories already have, if the user wants them linked.
+                    Map<File, File> twins = findDuplicates(items == null ? Collections.emptyList() : Arrays.asList(items));
                     // Creates directory for targetDir parameter.
                     Files.createDirectory(Paths.get(targetDir + fc.getSelectedFile().getName()));
                     File sourcePath = new File(fc.getSelectedFile().getPath()),
                             targetPath = new File(targetDir + fc.getSelectedFile().getName());
-                    FileUtils.copyDirectory(sourcePath, targetPath); // Directory is coppied
+                    // Directory is coppied, except for the sounds that are linked.
+                    FileUtils.copyDirectory(sourcePath, targetPath, item -> !twins.containsKey(item));
+                    for(Map.Entry<File, File> twin : twins.entrySet()) {
+                        Path linkPath = new File(targetPath, twin.getKey().getName()).toPath();
+                        if(!DuplicateSounds.link(linkPath, twin.getValue())) Files.copy(twin.getKey().toPath(), linkPath);
+                    }
                     filename = fc.getSelectedFile().getName(); // Now filename is set to the name of the selected item
                 }
             }
             fc = null;
     }
 
+    /*
+     * Returns the sounds of the repositories that are identical to the given files, if the user wants the files to be
+     * linked to them. Returns an empty map if there are none, or if the user wants the files to be copied.
+     */
+    private static Map<File, File> findDuplicates(List<File> files) {
+        if(!DuplicateSounds.ENABLED) return Collections.emptyMap();
+        Map<File, File> twins = DuplicateSounds.find(files, new File(Startup.REPOSITORIES));
+        if(twins.isEmpty()) return twins;
+        StringBuilder message = new StringBuilder(bundle.getString("MGR_DUP")).append('\n');
+        for(Map.Entry<File, File> twin : twins.entrySet())
+            message.append('\n').append(twin.getKey().getName()).append(" = ")
+                    .append(twin.getValue().getParentFile().getName()).append('/').append(twin.getValue().getName());
+        int answer = JOptionPane.showConfirmDialog(null, message.toString(), bundle.getString("MGR_DUP_TTL"),
+                JOptionPane.YES_NO_OPTION, JOptionPane.QUESTION_MESSAGE);
+        return answer == JOptionPane.YES_OPTION ? twins : Collections.emptyMap();
+    }
+
     /**
      * Searches for the item that has the given filename in the given path. If there is any file with the same name,
      * it concatenates a number after the filename.
@@ -0,0 +1,80 @@
+/*
+ * Lunchpad - A Launchpad/Soundboard application.
+ * This file is part of Lunchpad.
+ *
+ * Lunchpad is free software: you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * Lunchpad is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Lunchpad. If not, see
+ * <https://www.gnu.org/licenses/>.
+ * */
+
+/**
+ * An immutable snapshot of which sample and which voice settings every key uses, in every channel.
+ * <pre></pre>
+ * The GUI builds a new KeyMap whenever the mapping changes and publishes it to the MixerEngine. The audio thread
+ * only reads the snapshot that was published last, so editing the mapping never blocks playback, and playback
+ * never sees a half-edited mapping.
+ * <pre></pre>
+ * Besides the samples, the snapshot knows the state of every key: whether it has no sound at all, or a sound that
+ * the player doesn't have, for example because its file is gone. The GUI can tell them apart from keys that are
+ * only silent for now, like the keys whose sound is still loading, without trying to play them.
+ * @since 1.3
+ */
+public final class KeyMap {
+    public static final byte ASSIGNED = 0;   // The key has a sound, which may still be loading
+    public static final byte UNASSIGNED = 1; // The key has no sound
+    public static final byte MISSING = 2;    // The key has a sound that is unknown to the player
+    public static final KeyMap EMPTY = new KeyMap(new Sample[0][], new byte[0][], new VoiceSettings[0]);
+
+    private final Sample[][] samples;        // [key][channel], null where there is nothing to play
+    private final byte[][] states;           // [key][channel], ASSIGNED, UNASSIGNED or MISSING
+    private final VoiceSettings[] settings;  // [key]
+
+    /**
+     * Creates a snapshot. The arrays are copied, so the caller can keep changing them.
+     * @param samples The sample of every key in every channel, indexed as [key][channel]. null for silent keys.
+     * @param states The state of every key in every channel, ASSIGNED, UNASSIGNED or MISSING, as [key][channel].
+     * @param settings The voice settings of every key.
+     * @since 1.3
+     */
+    public KeyMap(Sample[][] samples, byte[][] states, VoiceSettings[] settings) {
+        this.samples = new Sample[samples.length][];
+        this.states = new byte[states.length][];
+        for (int i = 0; i < samples.length; i++) this.samples[i] = samples[i].clone();
+        for (int i = 0; i < states.length; i++) this.states[i] = states[i].clone();
+        this.settings = settings.clone();
+    }
+
+    /**
+     * @return The sample of the key in the channel, or null if the key is silent or doesn't exist.
+     * @since 1.3
+     */
+    public Sample sampleAt(int key, int channel) {
+        if (key < 0 || key >= samples.length || channel < 0 || channel >= samples[key].length) return null;
+        return samples[key][channel];
+    }
+
+    /**
+     * @return The state of the key in the channel, ASSIGNED, UNASSIGNED or MISSING. UNASSIGNED for keys that
+     * don't exist.
+     * @since 1.3
+     */
+    public byte stateAt(int key, int channel) {
+        if (key < 0 || key >= states.length || channel < 0 || channel >= states[key].length) return UNASSIGNED;
+        return states[key][channel];
+    }
+
+    /**
+     * @return The voice settings of the key. The key must exist.
+     * @since 1.3
+     */
+    public VoiceSettings settingsAt(int key) {
+        return settings[key];
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Lunchpad - A Launchpad/Soundboard application.
+ * This file is part of Lunchpad.
+ *
+ * Lunchpad is free software: you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * Lunchpad is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Lunchpad. If not, see
+ * <https://www.gnu.org/licenses/>.
+ * */
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Scanner;
+
+/**
+ * The class that reads and writes the key mapping of a repository in the format of the previous versions,
+ * the file {@code keymappings.lpr}. The mapping is now kept by KeyMappingStore, which migrates this file.
+ * <pre></pre>
+ * The file has one line for every channel of every key, in the order of the keys: the filename of the sound,
+ * or {@code -} if the key has no sound in that channel. Keys without a sound are read as {@code "None"}.
+ * <pre>Ex:
+ *      {@code
+ *      String[][] names = KeyMappingFile.read(new File(my_repository, KeyMappingFile.NAME));
+ *      names[0][SoundKey.LEFT] = "hello.wav";
+ *      KeyMappingFile.write(new File(my_repository, KeyMappingFile.NAME), names);
+ *      }
+ * </pre>
+ * @since 1.3
+ */
+public class KeyMappingFile {
+    public static final String NAME = "keymappings.lpr";
+    public static final int KEYS = 26, CHANNELS = 2;
+
+    /**
+     * Reads the mapping file. If it doesn't exist, an empty mapping is written first.
+     * @param mapping The mapping file.
+     * @return The sound of every key in every channel, indexed as [key][channel]. "None" for keys without a sound.
+     * @throws IOException If the file cannot be read or created.
+     * @since 1.3
+     */
+    public static String[][] read(File mapping) throws IOException {
+        if (mapping.createNewFile()) {
+            Writer infoWrite = new FileWriter(mapping);
+            for (int i = 0; i < KEYS * CHANNELS; i++) {
+                infoWrite.write("-\n");
+            }
+            infoWrite.close();
+        }
+        String[][] names = new String[KEYS][CHANNELS];
+        try (Scanner infoRead = new Scanner(mapping)) {
+            String current;
+            for (int i = 0; i < KEYS; i++) {
+                for (int j = 0; j < CHANNELS; j++) {
+                    current = infoRead.nextLine();
+                    names[i][j] = current.equals("-") ? "None" : current;
+                }
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Writes the mapping file, replacing its contents.
+     * @param mapping The mapping file.
+     * @param names The sound of every key in every channel, indexed as [key][channel]. "None", empty or null
+     *              for keys without a sound.
+     * @throws IOException If the file cannot be written.
+     * @since 1.3
+     */
+    public static void write(File mapping, String[][] names) throws IOException {
+        try (Writer infoWrite = new FileWriter(mapping)) {
+            for (int i = 0; i < KEYS; i++) {
+                for (int j = 0; j < CHANNELS; j++) {
+                    String name = names[i][j];
+                    if (name == null || name.isEmpty() || name.equals("None"))
+                        infoWrite.write("-\n");
+                    else
+                        infoWrite.write(name + "\n");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,406 @@
+/*
+ * Lunchpad - A Launchpad/Soundboard application.
+ * This file is part of Lunchpad.
+ *
+ * Lunchpad is free software: you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * Lunchpad is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Lunchpad. If not, see
+ * <https://www.gnu.org/licenses/>.
+ * */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * The key mapping of a repository together with the voice settings of every key, saved so that a change only
+ * costs as much as the change itself and a crash never loses more than the change that was being written.
+ * <pre></pre>
+ * The mapping is kept in two files of the repository:
+ * <pre>
+ *      keymappings.lpm     The snapshot: every sound and every voice setting that isn't the default.
+ *      keymappings.lpj     The journal: the changes made since the snapshot, one line each, in order.
+ * </pre>
+ * A change is appended to the journal and forced to the disk. When the journal is long enough, or when the store
+ * is closed, the journal is compacted: the whole mapping is written to a new snapshot, which replaces the
+ * previous one by an atomic rename, and the journal starts over. Every line of both files has a CRC-32, so a line
+ * that was cut by a crash is ignored.
+ * <pre></pre>
+ * Both files are UTF-8 text. The snapshot starts with {@code LPM <version>}, its generation and its size in keys
+ * and channels (banks), and ends with the CRC-32 of the lines before it. The journal starts with {@code LPJ
+ * <version> <generation>} and is only replayed on top of the snapshot of the same generation. The records are:
+ * <pre>
+ *      sound &lt;key&gt; &lt;channel&gt; &lt;filename&gt;
+ *      none &lt;key&gt; &lt;channel&gt;
+ *      settings &lt;key&gt; &lt;voice limit&gt; &lt;priority&gt; &lt;steal policy&gt; &lt;0 or 1 for retrigger&gt;
+ * </pre>
+ * A repository that only has the keymappings.lpr of the previous versions is migrated when it is opened.
+ * The old file is left as it is. A snapshot that cannot be read, because it is damaged or was saved by another
+ * version, is renamed to {@code keymappings.lpm.damaged} and the mapping is migrated again the same way, so the
+ * repository can still be opened. {@code getWarning()} tells what happened.
+ * <pre></pre>
+ * Only one store may be open over a repository, since compacting it replaces the files under any other store.
+ * Use {@code read(...)} to get the mapping of a repository that may be open somewhere else.
+ * <pre>Ex:
+ *      {@code
+ *      KeyMappingStore mapping = KeyMappingStore.open(my_repository, null);
+ *      String[][] names = mapping.getNames();
+ *      names[0][SoundKey.LEFT] = "hello.wav";
+ *      mapping.update(names, mapping.getSettings()); // Only the change of the first key is written.
+ *      mapping.close();
+ *      }
+ * </pre>
+ * @since 1.3
+ */
+public final class KeyMappingStore {
+    public static final String SNAPSHOT = "keymappings.lpm";
+    public static final String JOURNAL = "keymappings.lpj";
+    private static final int VERSION = 1;
+    private static final int COMPACT_RECORDS = 256; // The journal is compacted once it has this many records
+
+    private final File snapshot, journal;
+    private String[][] names = new String[KeyMappingFile.KEYS][KeyMappingFile.CHANNELS]; // "None" for no sound
+    private VoiceSettings[] settings = new VoiceSettings[KeyMappingFile.KEYS];
+    private long generation;          // Generation of the snapshot, the journal must have the same one
+    private int journalRecords;       // Records in the journal of the current generation
+    private boolean journalCurrent;   // Whether the journal file belongs to the current generation
+    private boolean journalTorn;      // Whether the journal ends with a line that was cut, it must not grow
+    private String warning;           // Why the snapshot couldn't be used, null if it could
+
+    private KeyMappingStore(File repository) {
+        snapshot = new File(repository, SNAPSHOT);
+        journal = new File(repository, JOURNAL);
+        for (String[] channels : names) Arrays.fill(channels, "None");
+        Arrays.fill(settings, VoiceSettings.DEFAULT);
+    }
+
+    /**
+     * Opens the mapping of a repository. If the repository has no mapping of this format yet, it is migrated from
+     * keymappings.lpr, or from the mapping compiled into the pack if there is no keymappings.lpr either.
+     * @param repository The folder of the repository.
+     * @param pack The pack of the repository, or null.
+     * @return The mapping, with at least KeyMappingFile.KEYS keys and KeyMappingFile.CHANNELS channels.
+     * @throws IOException If the files cannot be read or written.
+     * @since 1.3
+     */
+    public static KeyMappingStore open(File repository, RepositoryPack pack) throws IOException {
+        return load(repository, pack, true);
+    }
+
+    /**
+     * Reads the mapping of a repository without writing anything, not even a migration. Use it where the mapping
+     * may be open in a store already, like when the repository is compiled into a pack.
+     * @param repository The folder of the repository.
+     * @param pack The pack of the repository, or null.
+     * @return The sound of every key in every channel, indexed as [key][channel]. "None" for keys without a sound.
+     * @throws IOException If the files cannot be read.
+     * @since 1.3
+     */
+    public static String[][] read(File repository, RepositoryPack pack) throws IOException {
+        return load(repository, pack, false).getNames();
+    }
+
+    private static KeyMappingStore load(File repository, RepositoryPack pack, boolean writable) throws IOException {
+        KeyMappingStore store = new KeyMappingStore(repository);
+        boolean readable = false, discarded = false;
+        if (store.snapshot.isFile()) {
+            try {
+                store.readSnapshot();
+                readable = true;
+            } catch (IOException e) {
+                store.discardSnapshot(e.getMessage(), writable);
+                discarded = true;
+            }
+        }
+        if (!readable) {
+            File legacy = new File(repository, KeyMappingFile.NAME);
+            String[][] migrated = legacy.isFile() ? KeyMappingFile.read(legacy) : pack != null ? pack.getMapping() : null;
+            if (migrated != null) {
+                for (int key = 0; key < migrated.length; key++)
+                    for (int channel = 0; channel < migrated[key].length; channel++)
+                        store.setName(key, channel, migrated[key][channel]);
+                if (writable) store.compact();
+            } else if (discarded && writable) {
+                store.compact(); // A new snapshot, so the journal of the discarded one is never replayed on it.
+            }
+        }
+        if (store.journal.isFile()) store.readJournal();
+        return store;
+    }
+
+    /**
+     * @return Why the saved mapping couldn't be used when the store was opened, for example because it is damaged,
+     * or null if it could. The mapping was migrated again from keymappings.lpr or from the pack in that case.
+     * @since 1.3
+     */
+    public String getWarning() {
+        return warning;
+    }
+
+    /**
+     * @return The sound of every key in every channel, indexed as [key][channel]. "None" for keys without a sound.
+     * @since 1.3
+     */
+    public synchronized String[][] getNames() {
+        String[][] copy = new String[names.length][];
+        for (int i = 0; i < names.length; i++) copy[i] = names[i].clone();
+        return copy;
+    }
+
+    /**
+     * @return The voice settings of every key.
+     * @since 1.3
+     */
+    public synchronized VoiceSettings[] getSettings() {
+        return settings.clone();
+    }
+
+    /**
+     * Changes the mapping and saves the keys that are different, appending them to the journal. Keys and channels
+     * beyond the given arrays keep their sounds and settings.
+     * @param newNames The sound of every key in every channel, indexed as [key][channel]. "None", empty or null
+     *                 for keys without a sound.
+     * @param newSettings The voice settings of every key.
+     * @throws IOException If the journal cannot be written. The store keeps the mapping it had before then, so the
+     * same update can be tried again.
+     * @since 1.3
+     */
+    public synchronized void update(String[][] newNames, VoiceSettings[] newSettings) throws IOException {
+        String[][] oldNames = getNames();
+        VoiceSettings[] oldSettings = getSettings();
+        List<String> records = new ArrayList<>();
+        for (int key = 0; key < newNames.length; key++)
+            for (int channel = 0; channel < newNames[key].length; channel++) {
+                String name = normalize(newNames[key][channel]);
+                if (!name.equals(nameAt(key, channel))) {
+                    setName(key, channel, name);
+                    records.add(soundRecord(key, channel, name));
+                }
+            }
+        for (int key = 0; key < newSettings.length; key++) {
+            if (!newSettings[key].equals(settingsAt(key))) {
+                setSettings(key, newSettings[key]);
+                records.add(settingsRecord(key, newSettings[key]));
+            }
+        }
+        try {
+            append(records);
+        } catch (IOException e) {
+            names = oldNames;
+            settings = oldSettings;
+            throw e;
+        }
+    }
+
+    /**
+     * Writes the whole mapping into a new snapshot and starts a new journal.
+     * @throws IOException If the snapshot cannot be written.
+     * @since 1.3
+     */
+    public synchronized void compact() throws IOException {
+        StringBuilder text = new StringBuilder();
+        text.append("LPM ").append(VERSION).append('\n');
+        text.append("generation ").append(generation + 1).append('\n');
+        text.append("size ").append(names.length).append(' ').append(names[0].length).append('\n');
+        for (int key = 0; key < settings.length; key++)
+            if (!settings[key].equals(VoiceSettings.DEFAULT)) text.append(settingsRecord(key, settings[key])).append('\n');
+        for (int key = 0; key < names.length; key++)
+            for (int channel = 0; channel < names[key].length; channel++)
+                if (!names[key][channel].equals("None")) text.append(soundRecord(key, channel, names[key][channel])).append('\n');
+        String crc = crc(text.toString());
+        text.append("end ").append(crc).append('\n');
+
+        File temporary = new File(snapshot.getPath() + ".tmp");
+        write(temporary, text.toString(), StandardOpenOption.TRUNCATE_EXISTING);
+        Files.move(temporary.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        // The journal of the previous generation is ignored from now on, deleting it only saves space.
+        generation++;
+        journal.delete();
+        journalRecords = 0;
+        journalCurrent = journalTorn = false;
+    }
+
+    /**
+     * Compacts the journal if it has any change. The store can still be used afterwards.
+     * @throws IOException If the snapshot cannot be written.
+     * @since 1.3
+     */
+    public synchronized void close() throws IOException {
+        if (journalRecords > 0 || journalTorn) compact();
+    }
+
+    // Appends the records to the journal, or compacts the journal instead when it's full or cut by a crash.
+    private void append(List<String> records) throws IOException {
+        if (records.isEmpty()) return;
+        if (journalTorn || journalRecords + records.size() > COMPACT_RECORDS) {
+            compact();
+            return;
+        }
+        StringBuilder text = new StringBuilder();
+        if (!journalCurrent) text.append("LPJ ").append(VERSION).append(' ').append(generation).append('\n');
+        for (String record : records) text.append(crc(record)).append(' ').append(record).append('\n');
+        // A journal of another generation is replaced, the current one is appended to.
+        write(journal, text.toString(), journalCurrent ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING);
+        journalCurrent = true;
+        journalRecords += records.size();
+    }
+
+    private static void write(File file, String text, StandardOpenOption mode) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, mode)) {
+            ByteBuffer bytes = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+            while (bytes.hasRemaining()) channel.write(bytes);
+            channel.force(false);
+        }
+    }
+
+    private void readSnapshot() throws IOException {
+        List<String> lines = Files.readAllLines(snapshot.toPath(), StandardCharsets.UTF_8);
+        if (lines.isEmpty() || !lines.get(0).startsWith("LPM "))
+            throw new IOException(snapshot + " is not a key mapping.");
+        if (!lines.get(0).equals("LPM " + VERSION))
+            throw new IOException(snapshot + " was saved by another version of Lunchpad.");
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < lines.size() - 1; i++) text.append(lines.get(i)).append('\n');
+        if (lines.size() < 4 || !lines.get(lines.size() - 1).equals("end " + crc(text.toString())))
+            throw new IOException(snapshot + " is damaged.");
+        try {
+            generation = Long.parseLong(lines.get(1).substring("generation ".length()));
+            String[] size = lines.get(2).split(" ");
+            setName(Integer.parseInt(size[1]) - 1, Integer.parseInt(size[2]) - 1, "None"); // Grows to the size.
+            for (int i = 3; i < lines.size() - 1; i++)
+                if (!apply(lines.get(i))) throw new IOException(snapshot + " has an unknown record: " + lines.get(i));
+        } catch (RuntimeException e) {
+            throw new IOException(snapshot + " is damaged.", e);
+        }
+    }
+
+    // Forgets what was read from a snapshot that cannot be used, and keeps the file aside so it isn't overwritten.
+    private void discardSnapshot(String reason, boolean writable) {
+        warning = reason;
+        System.out.println(reason + " The key mapping is migrated again.");
+        names = new String[KeyMappingFile.KEYS][KeyMappingFile.CHANNELS];
+        for (String[] channels : names) Arrays.fill(channels, "None");
+        settings = new VoiceSettings[KeyMappingFile.KEYS];
+        Arrays.fill(settings, VoiceSettings.DEFAULT);
+        generation = 0;
+        if (!writable) return;
+        try {
+            Files.move(snapshot.toPath(), new File(snapshot.getPath() + ".damaged").toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            System.out.println(snapshot + " cannot be kept aside: " + e.getMessage());
+        }
+    }
+
+    // Replays the journal of the current generation, up to the first line that is damaged or cut.
+    private void readJournal() throws IOException {
+        String text = new String(Files.readAllBytes(journal.toPath()), StandardCharsets.UTF_8);
+        String[] lines = text.split("\n", -1); // The last element is what follows the last newline.
+        if (lines.length < 2 || !lines[0].equals("LPJ " + VERSION + " " + generation)) return;
+        journalCurrent = true;
+        for (int i = 1; i < lines.length - 1; i++) {
+            String line = lines[i];
+            int space = line.indexOf(' ');
+            if (space < 0 || !line.substring(0, space).equals(crc(line.substring(space + 1)))
+                    || !apply(line.substring(space + 1))) {
+                journalTorn = true;
+                return;
+            }
+            journalRecords++;
+        }
+        if (!lines[lines.length - 1].isEmpty()) journalTorn = true; // The last line has no newline, it was cut.
+    }
+
+    // Applies a record of the snapshot or of the journal. Returns false if the record isn't valid.
+    private boolean apply(String record) {
+        try {
+            String[] parts = record.split(" ", 4);
+            switch (parts[0]) {
+                case "sound":
+                    setName(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]), parts[3]);
+                    return true;
+                case "none":
+                    setName(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]), "None");
+                    return true;
+                case "settings":
+                    parts = record.split(" ");
+                    setSettings(Integer.parseInt(parts[1]), new VoiceSettings(Integer.parseInt(parts[2]),
+                            Integer.parseInt(parts[3]), StealPolicy.valueOf(parts[4]), parts[5].equals("1")));
+                    return true;
+                default:
+                    return false;
+            }
+        } catch (RuntimeException e) { // Missing fields, numbers that aren't numbers, unknown steal policies...
+            return false;
+        }
+    }
+
+    private String nameAt(int key, int channel) {
+        return key < names.length && channel < names[key].length ? names[key][channel] : "None";
+    }
+
+    private VoiceSettings settingsAt(int key) {
+        return key < settings.length ? settings[key] : VoiceSettings.DEFAULT;
+    }
+
+    // Sets the sound of a key, growing the mapping if the key or the channel doesn't exist yet.
+    private void setName(int key, int channel, String name) {
+        if (key < 0 || channel < 0) throw new IllegalArgumentException("Negative key or channel");
+        if (key >= names.length || channel >= names[0].length) {
+            int channels = Math.max(channel + 1, names[0].length);
+            String[][] grown = new String[Math.max(key + 1, names.length)][channels];
+            for (int i = 0; i < grown.length; i++) {
+                Arrays.fill(grown[i], "None");
+                if (i < names.length) System.arraycopy(names[i], 0, grown[i], 0, names[i].length);
+            }
+            names = grown;
+            if (settings.length < names.length) setSettings(names.length - 1, VoiceSettings.DEFAULT);
+        }
+        names[key][channel] = normalize(name);
+    }
+
+    private void setSettings(int key, VoiceSettings voiceSettings) {
+        if (key < 0) throw new IllegalArgumentException("Negative key");
+        if (key >= settings.length) {
+            int length = settings.length;
+            settings = Arrays.copyOf(settings, key + 1);
+            Arrays.fill(settings, length, settings.length, VoiceSettings.DEFAULT);
+        }
+        settings[key] = voiceSettings;
+    }
+
+    private static String normalize(String name) {
+        return name == null || name.isEmpty() ? "None" : name;
+    }
+
+    private static String soundRecord(int key, int channel, String name) {
+        return name.equals("None") ? "none " + key + " " + channel : "sound " + key + " " + channel + " " + name;
+    }
+
+    private static String settingsRecord(int key, VoiceSettings settings) {
+        return "settings " + key + " " + settings.voiceLimit + " " + settings.priority + " "
+                + settings.stealPolicy.name() + " " + (settings.retrigger ? 1 : 0);
+    }
+
+    private static String crc(String text) {
+        CRC32 crc = new CRC32();
+        crc.update(text.getBytes(StandardCharsets.UTF_8));
+        return String.format("%08x", crc.getValue());
+    }
+}
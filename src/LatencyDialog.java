@@ -0,0 +1,142 @@
+/*
+ * Lunchpad - A Launchpad/Soundboard application.
+ * This file is part of Lunchpad.
+ *
+ * Lunchpad is free software: you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * Lunchpad is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Lunchpad. If not, see
+ * <https://www.gnu.org/licenses/>.
+ * */
+
+import javax.swing.JButton;
+import javax.swing.JFileChooser;
+import javax.swing.JOptionPane;
+import javax.swing.JScrollPane;
+import javax.swing.JTextArea;
+import javax.swing.Timer;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ResourceBundle;
+
+/**
+ * The class that contains a dialog with the trigger latencies of every key, measured from the key press to the
+ * first frame of the sound leaving the output line. The numbers are refreshed while the dialog is open,
+ * so the keys can be played and watched at the same time.
+ * <pre></pre>
+ * The latencies can be reset, and exported as CSV or JSON to compare buffer sizes or versions of the application.
+ * @since 1.3
+ */
+public class LatencyDialog {
+    private static final int REFRESH_MS = 500;
+    private static ResourceBundle bundle = ResourceBundle.getBundle("LatencyStrings");
+
+    private final LatencyStats stats;
+    private final String[] keyNames;
+    private final LPDialog dialog;
+    private final JTextArea table;
+
+    /**
+     * Creates and shows the dialog.
+     * @param stats The latencies to show.
+     * @param keys The names of the keys, in the order of their indexes.
+     * @since 1.3
+     */
+    public LatencyDialog(LatencyStats stats, char[] keys) {
+        this.stats = stats;
+        keyNames = new String[keys.length];
+        for (int i = 0; i < keys.length; i++) keyNames[i] = String.valueOf(keys[i]);
+
+        dialog = new LPDialog(bundle.getString("LAT_TITLE"));
+        dialog.setResizable(false);
+        dialog.setSize(new Dimension(520, 400));
+        WindowActions.centerWindow(dialog);
+        // Not modal, so the keys of the main window can be played while the dialog is open.
+        dialog.setFocusableWindowState(false);
+
+        table = new JTextArea();
+        table.setEditable(false);
+        table.setFocusable(false);
+        table.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        table.setForeground(WindowActions.BOX_FOREGROUND);
+        table.setBackground(WindowActions.BOX_BACKGROUND);
+        JScrollPane scrollPane = new JScrollPane(table);
+        scrollPane.setFocusable(false);
+        scrollPane.setBounds(10, 10, 500, 300);
+        dialog.mainPanel.add(scrollPane);
+
+        Timer refresh = new Timer(REFRESH_MS, e -> refresh());
+
+        addButton(bundle.getString("LAT_RESET"), 10, e -> {
+            stats.reset();
+            refresh();
+        });
+        addButton(bundle.getString("LAT_CSV"), 220, e -> export(true));
+        addButton(bundle.getString("LAT_JSON"), 315, e -> export(false));
+        addButton(bundle.getString("LAT_CLOSE"), 410, e -> {
+            refresh.stop();
+            dialog.dispose();
+        });
+
+        refresh();
+        refresh.start();
+        dialog.setVisible(true);
+    }
+
+    private void addButton(String text, int x, java.awt.event.ActionListener action) {
+        JButton button = new JButton(text);
+        button.setBounds(x, 318, 90, 30);
+        button.setBackground(WindowActions.BUTTON_COLOR);
+        button.setFocusable(false);
+        button.addActionListener(action);
+        dialog.mainPanel.add(button);
+    }
+
+    // Puts the current latencies into the table, in microseconds.
+    private void refresh() {
+        StringBuilder text = new StringBuilder(String.format("%-6s%8s%10s%10s%10s%10s%n",
+                bundle.getString("LAT_KEY"), bundle.getString("LAT_COUNT"), "p50", "p99", "p999", "max"));
+        for (int i = 0; i < keyNames.length; i++) {
+            LatencyHistogram histogram = stats.getKey(i);
+            if (histogram != null && histogram.getCount() > 0) text.append(row(keyNames[i], histogram));
+        }
+        text.append(row(bundle.getString("LAT_ALL"), stats.getGlobal()));
+        text.append('\n').append(bundle.getString("LAT_UNIT"));
+        table.setText(text.toString());
+    }
+
+    private static String row(String name, LatencyHistogram histogram) {
+        return String.format("%-6s%8d%10s%10s%10s%10s%n", name, histogram.getCount(),
+                LatencyStats.micros(histogram.getPercentile(50)), LatencyStats.micros(histogram.getPercentile(99)),
+                LatencyStats.micros(histogram.getPercentile(99.9)), LatencyStats.micros(histogram.getMax()));
+    }
+
+    // Asks where the latencies should be saved and writes them there as CSV or JSON.
+    private void export(boolean csv) {
+        String extension = csv ? ".csv" : ".json";
+        JFileChooser fc = new JFileChooser();
+        fc.setSelectedFile(new File("latency" + extension));
+        if (fc.showSaveDialog(dialog) != JFileChooser.APPROVE_OPTION) return;
+
+        File target = fc.getSelectedFile();
+        if (!target.getName().toLowerCase().endsWith(extension)) target = new File(target.getPath() + extension);
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(target), StandardCharsets.UTF_8)) {
+            if (csv) stats.writeCsv(out, keyNames);
+            else stats.writeJson(out, keyNames);
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(dialog, bundle.getString("LAT_ERR") + "\n" + e.getMessage(),
+                    bundle.getString("LAT_TITLE"), JOptionPane.WARNING_MESSAGE, null);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Lunchpad - A Launchpad/Soundboard application.
+ * This file is part of Lunchpad.
+ *
+ * Lunchpad is free software: you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * Lunchpad is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Lunchpad. If not, see
+ * <https://www.gnu.org/licenses/>.
+ * */
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies with a fixed number of buckets, so recording a value never allocates anything.
+ * <pre></pre>
+ * The buckets are log-linear: every power of two of microseconds is split into 16 buckets of equal width,
+ * so a percentile is never off by more than about 6% of its value, from a microsecond up to about a minute.
+ * The maximum and the mean are exact.
+ * <pre></pre>
+ * Only one thread may record values, usually the render thread of the MixerEngine. Any thread can read the
+ * histogram at the same time, it sees every value that was recorded before it started reading.
+ * <pre>Ex:
+ *      {@code
+ *      histogram.record(System.nanoTime() - start);
+ *      long p99 = histogram.getPercentile(99); // In nanoseconds
+ *      }
+ * </pre>
+ * @since 1.3
+ */
+public final class LatencyHistogram {
+    private static final int UNIT_SHIFT = 10;   // Values are counted in units of 1024 ns, about a microsecond
+    private static final int SUB_BITS = 4;      // 16 buckets for every power of two
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int MAX_EXPONENT = 35; // Largest power of two of units, about 70 seconds
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong(), sum = new AtomicLong(), max = new AtomicLong();
+
+    /**
+     * Adds a value to the histogram. Must only be called by the recording thread.
+     * @param nanos The latency in nanoseconds. Negative values are counted as 0.
+     * @since 1.3
+     */
+    public void record(long nanos) {
+        nanos = Math.max(0, nanos);
+        int bucket = bucketOf(nanos);
+        // A single thread records, so the lazy writes can't lose updates, and they are cheaper than an increment.
+        counts.lazySet(bucket, counts.get(bucket) + 1);
+        sum.lazySet(sum.get() + nanos);
+        if (nanos > max.get()) max.lazySet(nanos);
+        count.lazySet(count.get() + 1);
+    }
+
+    /**
+     * Forgets every recorded value. A value that is recorded at the same moment may be kept or dropped.
+     * @since 1.3
+     */
+    public void reset() {
+        count.set(0);
+        for (int i = 0; i < BUCKETS; i++) counts.set(i, 0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    /** @return Number of recorded values. */
+    public long getCount() {
+        return count.get();
+    }
+
+    /** @return The largest recorded value in nanoseconds, or 0 if nothing was recorded. */
+    public long getMax() {
+        return max.get();
+    }
+
+    /** @return The mean of the recorded values in nanoseconds, or 0 if nothing was recorded. */
+    public long getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : sum.get() / n;
+    }
+
+    /**
+     * Returns the value that the given percentage of the recorded values doesn't exceed. The result is the upper
+     * bound of the bucket that the percentile falls in, but never more than the maximum.
+     * @param percent The percentile, between 0 and 100. For example 99.9 for p999.
+     * @return The percentile in nanoseconds, or 0 if nothing was recorded.
+     * @since 1.3
+     */
+    public long getPercentile(double percent) {
+        long total = 0;
+        long[] snapshot = new long[BUCKETS]; // The counts may change while they are summed, so they are read once.
+        for (int i = 0; i < BUCKETS; i++) total += snapshot[i] = counts.get(i);
+        if (total == 0) return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(total * Math.min(100, Math.max(0, percent)) / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) return Math.min(getMax(), upperBoundOf(i));
+        }
+        return getMax();
+    }
+
+    // Index of the bucket of the value. The first 16 buckets are one unit wide, then the width doubles every 16 buckets.
+    private static int bucketOf(long nanos) {
+        long units = Math.min(nanos >> UNIT_SHIFT, (1L << (MAX_EXPONENT + 1)) - 1);
+        if (units < SUB_BUCKETS) return (int) units;
+        int shift = 63 - Long.numberOfLeadingZeros(units) - SUB_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((units >> shift) - SUB_BUCKETS);
+    }
+
+    // The first value in nanoseconds that no longer belongs to the bucket.
+    private static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) return (long) (bucket + 1) << UNIT_SHIFT;
+        int shift = bucket / SUB_BUCKETS - 1;
+        return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS + 1) << shift << UNIT_SHIFT;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Lunchpad - A Launchpad/Soundboard application.
+ * This file is part of Lunchpad.
+ *
+ * Lunchpad is free software: you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * Lunchpad is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Lunchpad. If not, see
+ * <https://www.gnu.org/licenses/>.
+ * */
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+
+/**
+ * The trigger latencies of the MixerEngine: one LatencyHistogram for every key and one for all of them together.
+ * <pre></pre>
+ * A latency starts when the key event reaches the application and ends when the first frame of the triggered
+ * sound leaves the buffer of the output line, which is estimated from the frames that were queued in the line
+ * when the block of the sound was written. The buffer of the audio device itself is not included.
+ * <pre></pre>
+ * The statistics can be written as CSV or JSON, with one row for every key that has recorded values and one
+ * for all keys. The values are written in microseconds.
+ * @since 1.3
+ */
+public final class LatencyStats {
+    public static final int KEY_COUNT = 64; // Keys with their own histogram, the others only count in the global one
+
+    private final LatencyHistogram global = new LatencyHistogram();
+    private final LatencyHistogram[] keys = new LatencyHistogram[KEY_COUNT];
+
+    public LatencyStats() {
+        for (int i = 0; i < KEY_COUNT; i++) keys[i] = new LatencyHistogram();
+    }
+
+    /**
+     * Records the latency of a trigger. Must only be called by the render thread of the MixerEngine.
+     * @param key Index of the triggered key.
+     * @param nanos The latency in nanoseconds.
+     * @since 1.3
+     */
+    public void record(int key, long nanos) {
+        global.record(nanos);
+        if (key >= 0 && key < KEY_COUNT) keys[key].record(nanos);
+    }
+
+    /** @return The histogram of every trigger. */
+    public LatencyHistogram getGlobal() {
+        return global;
+    }
+
+    /** @return The histogram of the triggers of the key, or null if the key has no histogram of its own. */
+    public LatencyHistogram getKey(int key) {
+        return key >= 0 && key < KEY_COUNT ? keys[key] : null;
+    }
+
+    /**
+     * Forgets every recorded latency.
+     * @since 1.3
+     */
+    public void reset() {
+        global.reset();
+        for (LatencyHistogram histogram : keys) histogram.reset();
+    }
+
+    /**
+     * Writes the statistics as CSV, with the header {@code key,count,p50_us,p99_us,p999_us,max_us,mean_us}.
+     * @param out Where the CSV is written to. It isn't closed.
+     * @param keyNames The name of every key, written instead of its index. Keys without a name are written by index.
+     * @throws IOException If the CSV cannot be written.
+     * @since 1.3
+     */
+    public void writeCsv(Writer out, String[] keyNames) throws IOException {
+        out.write("key,count,p50_us,p99_us,p999_us,max_us,mean_us\n");
+        for (int i = 0; i < KEY_COUNT; i++) {
+            if (keys[i].getCount() > 0) out.write(csvRow(nameOf(i, keyNames), keys[i]));
+        }
+        out.write(csvRow("all", global));
+    }
+
+    /**
+     * Writes the statistics as a JSON object, with the global statistics under {@code "all"} and the statistics of
+     * every key under {@code "keys"}.
+     * @param out Where the JSON is written to. It isn't closed.
+     * @param keyNames The name of every key, written instead of its index. Keys without a name are written by index.
+     * @throws IOException If the JSON cannot be written.
+     * @since 1.3
+     */
+    public void writeJson(Writer out, String[] keyNames) throws IOException {
+        out.write("{\n  \"unit\": \"us\",\n  \"all\": " + jsonObject(global) + ",\n  \"keys\": {");
+        boolean first = true;
+        for (int i = 0; i < KEY_COUNT; i++) {
+            if (keys[i].getCount() == 0) continue;
+            out.write((first ? "\n" : ",\n") + "    \"" + jsonEscape(nameOf(i, keyNames)) + "\": " + jsonObject(keys[i]));
+            first = false;
+        }
+        out.write(first ? "}\n}\n" : "\n  }\n}\n");
+    }
+
+    private static String nameOf(int key, String[] keyNames) {
+        return keyNames != null && key < keyNames.length && keyNames[key] != null ? keyNames[key] : String.valueOf(key);
+    }
+
+    private static String csvRow(String name, LatencyHistogram histogram) {
+        // Names are single characters or numbers in Lunchpad, but quoting keeps the CSV valid for any name.
+        return "\"" + name.replace("\"", "\"\"") + "\"," + histogram.getCount() + ","
+                + micros(histogram.getPercentile(50)) + "," + micros(histogram.getPercentile(99)) + ","
+                + micros(histogram.getPercentile(99.9)) + "," + micros(histogram.getMax()) + ","
+                + micros(histogram.getMean()) + "\n";
+    }
+
+    private static String jsonObject(LatencyHistogram histogram) {
+        return "{\"count\": " + histogram.getCount()
+                + ", \"p50\": " + micros(histogram.getPercentile(50))
+                + ", \"p99\": " + micros(histogram.getPercentile(99))
+                + ", \"p999\": " + micros(histogram.getPercentile(99.9))
+                + ", \"max\": " + micros(histogram.getMax())
+                + ", \"mean\": " + micros(histogram.getMean()) + "}";
+    }
+
+    private static String jsonEscape(String text) {
+        StringBuilder escaped = new StringBuilder();
+        for (char c : text.toCharArray()) {
+            if (c == '"' || c == '\\') escaped.append('\\').append(c);
+            else if (c < 0x20) escaped.append(String.format("\\u%04x", (int) c));
+            else escaped.append(c);
+        }
+        return escaped.toString();
+    }
+
+    // Nanoseconds as microseconds with one decimal, independent of the locale so that the files stay parsable.
+    static String micros(long nanos) {
+        return String.format(Locale.ROOT, "%.1f", nanos / 1000.0);
+    }
+}
@@ -23,31 +23,41 @@ import java.nio.file.Paths;
 // Entry point of the application.
 public class Main {
     public static void main(String[] args) {
+        // Packs can be compiled and verified from the command line, without the GUI.
+        if(PackTool.isCommand(args)) System.exit(PackTool.run(args, System.out));
 
         FlatDesktop.setAboutHandler( () -> {
             if(!About.aboutShowing) new About();
         } );
 
         try {
+            // Opening the audio device, loading the last repository and the rest of the startup run in the
+            // background, while the Look And Feel is set and the splash screen is shown.
+            Startup startup = Startup.begin();
+
             // Setting the Look And Feel theme of the whole project.
             UIManager.setLookAndFeel("com.formdev.flatlaf.themes.FlatMacDarkLaf");
 
-            // Initiates the splash screen (or banner?) to be shown while the main window initiates.
+            // Initiates the splash screen (or banner?) to be shown while the startup tasks run.
             SplashScreen splashScreen = new SplashScreen();
             splashScreen.baseFrame.setVisible(true);
-            Thread.sleep(1000);
+            startup.await(splashScreen);
+
+            // Hide the splash screen as soon as the startup is done.
+            splashScreen.baseFrame.setVisible(false);
 
             // Creates a directory that holds every audio library that cn be used in the application.
+            long choosing = System.nanoTime();
             String startString = fileCAFE();
+            Startup.userWaited(System.nanoTime() - choosing);
+            startup.chosen(startString);
 
             // Initiate the main window.
-            MainWindow win = new MainWindow(startString);
-
-            // Hide the splash screen
-            splashScreen.baseFrame.setVisible(false);
+            MainWindow win = new MainWindow(startString, startup.getPlayer());
 
             // Show the main window
             win.mWindow.setVisible(true);
+            Startup.windowShown();
 
             // At this point, the app should be running without any issue.
             // Otherwise, an exception will be thrown on console.
@@ -80,8 +90,8 @@ public class Main {
        so that in the main method, the output will be used to initiate the main window.
      */
     public static String fileCAFE() throws java.io.IOException{
-        Files.createDirectories(Paths.get(System.getProperty("user.home") + "/LunchPad Repositories/"));
-        RepoMgr repoMgr = new RepoMgr(System.getProperty("user.home") + "/LunchPad Repositories/", "");
+        Files.createDirectories(Paths.get(Startup.REPOSITORIES));
+        RepoMgr repoMgr = new RepoMgr(Startup.REPOSITORIES, "");
         if(repoMgr.cancelled) System.exit(0);
         System.out.println(repoMgr.getSelectedName());
         return repoMgr.getSelectedName();
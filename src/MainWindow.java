@@ -19,23 +19,21 @@ import java.awt.BorderLayout;
 import java.awt.FlowLayout;
 import java.awt.GridBagLayout;
 import java.awt.GridBagConstraints;
-import java.awt.Image;
 import java.awt.Font;
 import java.awt.Color;
 import java.awt.event.KeyListener;
 import java.awt.event.KeyEvent;
 import java.io.IOException;
 import java.io.File;
-import java.io.Writer;
-import java.io.FileWriter;
-import javax.imageio.ImageIO;
 import javax.swing.*;
 import javax.swing.border.Border;
 import javax.swing.border.TitledBorder;
-import java.util.HashMap;
-import java.util.Objects;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.ResourceBundle;
-import java.util.Scanner;
+import java.util.concurrent.atomic.AtomicReference;
 // 0: up
 // 1: right
 // 2: down
@@ -50,30 +48,55 @@ public class MainWindow implements KeyListener {
     private JButton leftSound, rightSound, selectedKeyButton;
 
     private JTextField soundPackageLocation;
+    private JProgressBar loadProgress;
+    private JButton cancelLoad;
+    private JButton compilePack;
+    private SoundPlayer.Loading repositoryLoading; // The load of the active repository, while it's in progress
+    // The repository whose first load hasn't finished yet. The whole repository is indexed after it
+    private final AtomicReference<String> repositoryToIndex = new AtomicReference<>();
     private final SoundKey[] soundKeys;
-    private final HashMap<Character, Integer> keyIndexes;
+    private final int[] keyCodeIndexes; // Index of the sound key of every key code, -1 for the other keys
     private String currentRepository;
+    private volatile MappingWriter mappingWriter; // Saves the mapping of the current repository in the background
+    private RepositoryWatcher repositoryWatcher; // Reloads the sounds whose file changes, null if there is none
     private final SoundPlayer soundPlayer;
     private int selectedKey;
     private Icon[] souncChannelIcon;
     private JLabel selectedChannelLabel;
+    private JSpinner voiceLimit, priority;
+    private JComboBox<String> stealPolicy;
+    private JCheckBox retrigger;
+    private boolean showingSettings; // true while the settings of a newly selected key are put into the controls
+    private boolean shiftHeld;       // While Shift is held, the sounds restart instead of layering
     private static ResourceBundle bundle = ResourceBundle.getBundle("MainWindowStrings");
     char[] keyString;
 
     /** Simply call this method with the "new" keyword and you have a MainWindow*/
     public MainWindow(String openRepository) throws java.io.IOException {
+        this(openRepository, createPlayer());
+    }
+
+    /**
+     * Creates the main window with a sound player that was created beforehand, for example one that is already
+     * loading the sounds of the repository.
+     * @param openRepository Name of the repository to open.
+     * @param soundPlayer The sound player of the window.
+     * @since 1.3
+     */
+    public MainWindow(String openRepository, SoundPlayer soundPlayer) throws java.io.IOException {
 
-        soundPlayer = new SoundPlayer();
+        this.soundPlayer = soundPlayer;
         initWindow();
 
         keyString = "QWERTYUIOPASDFGHJKLZXCVBNM".toCharArray();
         soundKeys = new SoundKey[26];
-        keyIndexes = new HashMap<>();
+        keyCodeIndexes = new int[256];
+        Arrays.fill(keyCodeIndexes, -1);
 
         int j = 0;
         for(int i = 0; i < 26; i++){
             soundKeys[i] = new SoundKey("" + keyString[i]);
-            keyIndexes.put(keyString[i], i);
+            keyCodeIndexes[KeyEvent.getExtendedKeyCodeForChar(keyString[i])] = i;
             soundKeys[i].setFocusable(false);
             soundKeys[i].setBackground(WindowActions.BUTTON_COLOR);
             keyboardPanel[j].add(soundKeys[i]);
@@ -86,6 +109,7 @@ public class MainWindow implements KeyListener {
 
         currentRepository = System.getProperty("user.home") + "/LunchPad Repositories/" + openRepository + "/";
         soundPackageLocation.setText(openRepository);
+        Startup.rememberRepository(openRepository);
 
         remapButtons(true, true);
         selectKey(11);
@@ -95,6 +119,8 @@ public class MainWindow implements KeyListener {
         WindowActions.centerWindow(mWindow);
 
         mWindow.setDefaultCloseOperation(LPWindow.EXIT_ON_CLOSE);
+        // However the application quits, the edits that are still waiting to be written are saved.
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> closeMapping(false), "Lunchpad Mapping Saver"));
 
         mWindow.closeButton.addActionListener(e -> {
             try{close();}
@@ -103,6 +129,13 @@ public class MainWindow implements KeyListener {
 
     }
 
+    // Creates the sound player of the window, with the decoded sounds of the previous runs.
+    static SoundPlayer createPlayer() {
+        SoundPlayer player = new SoundPlayer();
+        player.setDiskCache(AudioDiskCache.openDefault());
+        return player;
+    }
+
     private void initWindow() throws java.io.IOException {
         mWindow = new LPWindow("");
         mWindow.setMinimumSize(new Dimension(900, 550));
@@ -156,8 +189,7 @@ public class MainWindow implements KeyListener {
             keyboardLayoutHolder.add(keyboardPanel[i], new GridBagConstraints());
         }
 
-        Icon stop = new ImageIcon(ImageIO.read(Objects.requireNonNull(getClass().getResource("/Artworks/shift.png")))
-                .getScaledInstance(15,15, Image.SCALE_SMOOTH));
+        Icon stop = Artwork.icon("shift.png", 15, 15);
         JButton stopSounds = new JButton(stop);
         stopSounds.setPreferredSize(new Dimension(120, 60));
         stopSounds.setText(bundle.getString("MW_STOP"));
@@ -165,8 +197,7 @@ public class MainWindow implements KeyListener {
         keyboardPanel[2].add(stopSounds);
 
 
-        JLabel logo = new JLabel(new ImageIcon(ImageIO.read(Objects.requireNonNull(getClass().getResource("/Artworks/logo.png")))
-                    .getScaledInstance(120, 80, Image.SCALE_SMOOTH)));
+        JLabel logo = new JLabel(Artwork.icon("logo.png", 120, 80));
         logo.setSize(240, 160);
 
         // Detect whether the program runs on a Macintosh machine, and align the logo accordingly.
@@ -175,8 +206,7 @@ public class MainWindow implements KeyListener {
         else
             mWindow.topBar.add(logo, BorderLayout.WEST);
 
-        Icon audioIcon = new ImageIcon(ImageIO.read(Objects.requireNonNull(getClass().getResource("/Artworks/add_sound.png")))
-                                      .getScaledInstance(15,15, Image.SCALE_SMOOTH));
+        Icon audioIcon = Artwork.icon("add_sound.png", 15, 15);
 
 
         leftSound = new JButton("None");
@@ -199,8 +229,7 @@ public class MainWindow implements KeyListener {
         selectedKeyButton.setFocusable(false);
         keyPanel.add(selectedKeyButton);
 
-        Icon repoIcon = new ImageIcon(ImageIO.read(Objects.requireNonNull(getClass().getResource("/Artworks/manage_rep.png")))
-                                    .getScaledInstance(15,15, Image.SCALE_SMOOTH));
+        Icon repoIcon = Artwork.icon("manage_rep.png", 15, 15);
 
         JButton addSound = new JButton(audioIcon);
         addSound.setText(bundle.getString("MW_MNGAUDIO"));
@@ -229,13 +258,34 @@ public class MainWindow implements KeyListener {
         soundPackageLocation.setFocusable(false);
         filePanel.add(soundPackageLocation);
 
+        // Shown only while the sounds of the repository are loading.
+        loadProgress = new JProgressBar();
+        loadProgress.setBounds(50, 172, 230, 20);
+        loadProgress.setStringPainted(true);
+        loadProgress.setVisible(false);
+        filePanel.add(loadProgress);
+
+        cancelLoad = new JButton(bundle.getString("MW_CANCEL"));
+        cancelLoad.setBounds(285, 170, 65, 24);
+        cancelLoad.setBackground(WindowActions.BUTTON_COLOR);
+        cancelLoad.setFocusable(false);
+        cancelLoad.addActionListener(e -> {
+            if(repositoryLoading != null) repositoryLoading.cancel();
+        });
+        cancelLoad.setVisible(false);
+        filePanel.add(cancelLoad);
+
+        // Hidden while the progress of a load is shown in its place.
+        compilePack = new JButton(bundle.getString("MW_COMPILE"));
+        compilePack.setBounds(250, 170, 100, 24);
+        compilePack.setBackground(WindowActions.BUTTON_COLOR);
+        compilePack.setFocusable(false);
+        compilePack.addActionListener(e -> compilePack());
+        filePanel.add(compilePack);
+
         souncChannelIcon = new Icon[2];
-        souncChannelIcon[0] = new ImageIcon(ImageIO.read(Objects.requireNonNull(getClass()
-                        .getResource("/Artworks/channel_left.png")))
-                        .getScaledInstance(25,25, Image.SCALE_SMOOTH));
-        souncChannelIcon[1] = new ImageIcon(ImageIO.read(Objects.requireNonNull(getClass()
-                        .getResource("/Artworks/channel_right.png")))
-                        .getScaledInstance(25,25, Image.SCALE_SMOOTH));
+        souncChannelIcon[0] = Artwork.icon("channel_left.png", 25, 25);
+        souncChannelIcon[1] = Artwork.icon("channel_right.png", 25, 25);
 
         selectedChannelLabel = new JLabel(bundle.getString("MW_CRNT_CHNL"));
         selectedChannelLabel.setBounds(140, 185, 150, 25);
@@ -243,6 +293,45 @@ public class MainWindow implements KeyListener {
         selectedChannelLabel.setHorizontalTextPosition(SwingConstants.LEFT);
         keyPanel.add(selectedChannelLabel);
 
+        // Voice settings of the selected key. They are shared by the sounds of both channels.
+        JLabel voicesLabel = new JLabel(bundle.getString("MW_VOICES"));
+        voicesLabel.setBounds(10, 145, 45, 25);
+        keyPanel.add(voicesLabel);
+
+        voiceLimit = new JSpinner(new SpinnerNumberModel(VoiceSettings.DEFAULT.voiceLimit, 1,
+                VoiceSettings.MAX_VOICE_LIMIT, 1));
+        voiceLimit.setBounds(55, 145, 50, 25);
+        voiceLimit.addChangeListener(e -> changeVoiceSettings());
+        keyPanel.add(voiceLimit);
+
+        stealPolicy = new JComboBox<>();
+        for(StealPolicy policy : StealPolicy.values()) stealPolicy.addItem(bundle.getString("MW_STEAL_" + policy.name()));
+        stealPolicy.setBounds(110, 145, 120, 25);
+        stealPolicy.addActionListener(e -> changeVoiceSettings());
+        keyPanel.add(stealPolicy);
+
+        JLabel priorityLabel = new JLabel(bundle.getString("MW_PRIORITY"));
+        priorityLabel.setBounds(235, 145, 45, 25);
+        keyPanel.add(priorityLabel);
+
+        priority = new JSpinner(new SpinnerNumberModel(VoiceSettings.DEFAULT.priority, -9, 9, 1));
+        priority.setBounds(275, 145, 45, 25);
+        priority.addChangeListener(e -> changeVoiceSettings());
+        keyPanel.add(priority);
+
+        retrigger = new JCheckBox(bundle.getString("MW_RETRIGGER"));
+        retrigger.setBounds(322, 145, 75, 25);
+        retrigger.addActionListener(e -> changeVoiceSettings());
+        keyPanel.add(retrigger);
+
+        // The keyboard should stay with the main window, otherwise the sound keys stop working.
+        stealPolicy.setFocusable(false);
+        retrigger.setFocusable(false);
+        for(JSpinner spinner : new JSpinner[]{voiceLimit, priority}) {
+            spinner.setFocusable(false);
+            ((JSpinner.DefaultEditor) spinner.getEditor()).getTextField().setFocusable(false);
+        }
+
         JButton about = new JButton("i");
         about.setBounds(3, 192, 25, 25);
         about.setBackground(WindowActions.BUTTON_COLOR);
@@ -250,65 +339,224 @@ public class MainWindow implements KeyListener {
         about.setFocusable(false);
         keyPanel.add(about);
 
+        JButton latency = new JButton(bundle.getString("MW_LATENCY"));
+        latency.setBounds(322, 192, 75, 25);
+        latency.setBackground(WindowActions.BUTTON_COLOR);
+        latency.addActionListener(e -> new LatencyDialog(soundPlayer.getLatencyStats(), keyString));
+        latency.setFocusable(false);
+        keyPanel.add(latency);
+
     }
 
     private void remapButtons(boolean remapButtons, boolean uploadSound) throws java.io.IOException{
+            RepositoryPack pack = RepositoryPack.openIfPresent(new File(currentRepository));
             if(remapButtons) {
-                File mapping = new File(currentRepository + "keymappings.lpr");
-                if (mapping.createNewFile()) {
-                    Writer infoWrite = new FileWriter(mapping);
-                    for (int i = 0; i < 52; i++) {
-                        infoWrite.write("-\n");
-                    }
-                    infoWrite.close();
-                }
-                Scanner infoRead = new Scanner(mapping);
-                String current;
+                closeMapping(true); // Every change of the previous repository is saved.
+                KeyMappingStore mapping = KeyMappingStore.open(new File(currentRepository), pack);
+                if (mapping.getWarning() != null)
+                    JOptionPane.showMessageDialog(null, bundle.getString("MW_MAPPING_ERR") + "\n" + mapping.getWarning(),
+                            bundle.getString("MW_MAPPING_ERR_TTL"), JOptionPane.WARNING_MESSAGE, null);
+                mappingWriter = new MappingWriter(mapping);
+                watchRepository();
+                String[][] names = mapping.getNames();
+                VoiceSettings[] settings = mapping.getSettings();
                 for (int i = 0; i < 26; i++) {
                     for (int j = 0; j < 2; j++) {
-                        current = infoRead.nextLine();
-                        if (!current.equals("-"))
-                            soundKeys[i].addSound(current, j);
-                        else
-                            soundKeys[i].addSound("None", j);
+                        soundKeys[i].addSound(names[i][j], j);
                     }
+                    soundKeys[i].setVoiceSettings(settings[i]);
                 }
-                infoRead.close();
+                publishKeyMap();
             }
 
             if(uploadSound) {
                 soundPlayer.clearPlayer();
+                soundPlayer.setPack(pack);
+                soundPlayer.setIndex(SoundIndex.of(new File(currentRepository)));
+                repositoryToIndex.set(currentRepository);
                 System.out.println(currentRepository);
-                String[] repList = new File(currentRepository).list();
-                assert repList != null;
-                for (String tempsound : repList) {
-                    if (tempsound.endsWith(".wav")) {
-                        soundPlayer.uploadSound(tempsound, currentRepository + tempsound);
-                    }
+                // Only the sounds assigned to a key are loaded. The rest of the repository is loaded
+                // when it's assigned to a key in changeSound().
+                loadSounds(existingMappedSounds(), true);
+            }
+    }
+
+    /*
+     * Watches the current repository, so that the sounds of the keys are reloaded as soon as their file is replaced,
+     * unloaded when it's deleted, and loaded when a missing file shows up, without reloading the whole repository.
+     */
+    private void watchRepository() {
+        if(repositoryWatcher != null) repositoryWatcher.close();
+        repositoryWatcher = null;
+        try {
+            repositoryWatcher = RepositoryWatcher.watch(new File(currentRepository), names -> {
+                if(names == null || names.stream().anyMatch(name -> name.endsWith(".wav")))
+                    SwingUtilities.invokeLater(this::reconcileSounds);
+            });
+        } catch (IOException e) {
+            System.out.println("The repository cannot be watched: " + e.getMessage());
+        }
+    }
+
+    /*
+     * Compiles the current repository into its pack in the background. The sounds that are already loaded stay
+     * as they are, the pack is used from the next time the repository is opened.
+     */
+    private void compilePack() {
+        saveButtonMap();
+        MappingWriter writer = mappingWriter;
+        String repository = currentRepository;
+        compilePack.setEnabled(false);
+        Thread compiler = new Thread(() -> {
+            String message;
+            int type = JOptionPane.INFORMATION_MESSAGE;
+            try {
+                writer.flush(); // The pack gets the mapping as it is now.
+                List<String> skipped = RepositoryPack.compile(new File(repository),
+                        new File(repository + RepositoryPack.FILE_NAME), Runtime.getRuntime().availableProcessors(),
+                        System.out);
+                message = bundle.getString("MW_COMPILED");
+                if (!skipped.isEmpty()) {
+                    message += "\n" + bundle.getString("MW_COMPILE_SKIPPED") + "\n" + String.join(", ", skipped);
+                    type = JOptionPane.WARNING_MESSAGE;
+                }
+            } catch (IOException | RuntimeException e) { // The button must come back whatever happened.
+                message = bundle.getString("MW_COMPILE_ERR") + "\n" + e.getMessage();
+                type = JOptionPane.WARNING_MESSAGE;
+            }
+            final String shown = message;
+            final int shownType = type;
+            SwingUtilities.invokeLater(() -> {
+                compilePack.setEnabled(true);
+                JOptionPane.showMessageDialog(mWindow, shown, bundle.getString("MW_COMPILE"), shownType, null);
+            });
+        }, "Lunchpad Pack Compiler");
+        compiler.setDaemon(true);
+        compiler.start();
+    }
+
+    // Returns the sounds assigned to a key whose file is in the repository, the sounds of the active channel first.
+    private List<String> existingMappedSounds() {
+        ArrayList<String> sounds = new ArrayList<>();
+        for (String tempsound : mappedSounds()) {
+            if (tempsound.endsWith(".wav") && new File(currentRepository + tempsound).isFile()) {
+                sounds.add(tempsound);
+            }
+        }
+        return sounds;
+    }
+
+    /*
+     * Brings the loaded sounds up-to-date with the key mapping and the repository after the user edits them.
+     * Only the sounds that are newly assigned or whose file has changed are loaded, and the ones that are not
+     * assigned anymore or whose file is gone are unloaded.
+     */
+    private void reconcileSounds() {
+        List<String> sounds = existingMappedSounds();
+        trackLoading(soundPlayer.reconcile(currentRepository, sounds, loadListener), false);
+    }
+
+    /*
+     * Loads the given sounds of the current repository in the background. Every key becomes playable and
+     * its label is lit as soon as its own sound is decoded.
+     */
+    private void loadSounds(List<String> sounds, boolean showProgress) {
+        trackLoading(soundPlayer.uploadSounds(currentRepository, sounds, loadListener), showProgress);
+    }
+
+    /*
+     * When showProgress is true, shows the progress of the load and the cancel button under the repository name,
+     * until the load finishes.
+     */
+    private void trackLoading(SoundPlayer.Loading loading, boolean showProgress) {
+        if(showProgress && loading.getDone() < loading.total) {
+            if(repositoryLoading != null) repositoryLoading.cancel();
+            repositoryLoading = loading;
+            loadProgress.setMaximum(loading.total);
+            loadProgress.setValue(loading.getDone());
+            loadProgress.setString(bundle.getString("MW_LOADING") + " " + loading.getDone() + " / " + loading.total);
+            loadProgress.setVisible(true);
+            cancelLoad.setVisible(true);
+            compilePack.setVisible(false);
+        }
+        updateKeyStates();
+    }
+
+    // Receives the progress of every load from the loader threads, and passes it to the event dispatch thread.
+    private final SoundPlayer.LoadListener loadListener = new SoundPlayer.LoadListener() {
+        @Override
+        public void soundLoaded(SoundPlayer.Loading loading, String name) {
+            // Sounds that failed or were cancelled are done too, but nothing can be played yet because of them.
+            if (soundPlayer.isLoaded(name)) Startup.soundPlayable();
+            SwingUtilities.invokeLater(() -> {
+                if(loading == repositoryLoading) {
+                    loadProgress.setValue(loading.getDone());
+                    loadProgress.setString(bundle.getString("MW_LOADING") + " "
+                            + loading.getDone() + " / " + loading.total);
                 }
+                updateKeyStates();
+            });
+        }
+
+        @Override
+        public void loadFinished(SoundPlayer.Loading loading) {
+            // Once the keys of a newly opened repository are playable, the sounds that aren't assigned to a key are
+            // indexed too. After that, only the sounds that were loaded again can have changed. Then the sounds that
+            // were decoded before their file was indexed can be shared with identical ones.
+            SoundIndex index = SoundIndex.of(new File(loading.directory));
+            if (repositoryToIndex.compareAndSet(loading.directory, null))
+                index.updateInBackground(soundPlayer::indexUpdated);
+            else if (loading.total > 0)
+                index.indexInBackground(loading.names, soundPlayer::indexUpdated);
+            SwingUtilities.invokeLater(() -> {
+                if(loading == repositoryLoading) {
+                    repositoryLoading = null;
+                    loadProgress.setVisible(false);
+                    cancelLoad.setVisible(false);
+                    compilePack.setVisible(true);
+                }
+                updateKeyStates();
+                soundPlayer.reportRejected();
+            });
+        }
+    };
+
+    // Dims the labels of the keys whose sound in the active channel is still loading or was skipped.
+    private void updateKeyStates() {
+        for(SoundKey k : soundKeys) {
+            String name = k.getSoundAt(SoundKey.getSoundIndex());
+            k.setReady(!soundPlayer.isPending(name) && !soundPlayer.isUnloaded(name));
+        }
+    }
+
+    // Returns every sound assigned to a key without duplicates, the sounds of the active channel first.
+    private LinkedHashSet<String> mappedSounds() {
+        LinkedHashSet<String> sounds = new LinkedHashSet<>();
+        int activeChannel = SoundKey.getSoundIndex();
+        for (int channel : new int[]{activeChannel, 1 - activeChannel})
+            for (SoundKey k : soundKeys) {
+                String name = k.getSoundAt(channel);
+                if (name != null && !name.equals("None")) sounds.add(name);
             }
+        return sounds;
     }
 
     void renameButtons() {
         SoundKey.switchSound(SoundKey.LEFT);
         selectedChannelLabel.setIcon(souncChannelIcon[SoundKey.LEFT]);
         for(SoundKey k : soundKeys) k.changeNameLabel(k.getSoundAt(SoundKey.LEFT));
+        updateKeyStates();
     }
 
-    private void saveButtonMap() throws  java.io.IOException{
-        File mapping = new File(currentRepository + "keymappings.lpr");
-        Writer infoWrite = new FileWriter(mapping);
-        String[] names;
-        for(int i = 0 ; i < 26; i++){
-            names = soundKeys[i].getClipName();
-            for(int j = 0; j < 2; j++){
-                if(names[j].equals("None") || names[j] == null || names[j].isEmpty())
-                    infoWrite.write("-\n");
-                else
-                    infoWrite.write(names[j] + "\n");
-            }
+    // Hands the mapping to the writer, which saves the keys that changed in the background.
+    private void saveButtonMap() {
+        String[][] names = new String[26][];
+        VoiceSettings[] settings = new VoiceSettings[26];
+        for(int i = 0 ; i < 26; i++) {
+            names[i] = soundKeys[i].getClipName();
+            settings[i] = soundKeys[i].getVoiceSettings();
         }
-        infoWrite.close();
+        mappingWriter.submit(names, settings);
     }
 
     private Border getBorder(String title) {
@@ -328,6 +576,37 @@ public class MainWindow implements KeyListener {
         rightSound.setText(names[SoundKey.RIGHT]);
         leftSound.setText(names[SoundKey.LEFT]);
         selectedKeyButton.setText(""+keyString[i]);
+
+        VoiceSettings settings = soundKeys[i].getVoiceSettings();
+        showingSettings = true;
+        voiceLimit.setValue(settings.voiceLimit);
+        priority.setValue(settings.priority);
+        stealPolicy.setSelectedIndex(settings.stealPolicy.ordinal());
+        retrigger.setSelected(settings.retrigger);
+        showingSettings = false;
+    }
+
+    // Applies the voice setting controls to the selected key.
+    private void changeVoiceSettings() {
+        if(showingSettings) return; // The controls are showing the settings of the key, nothing has changed.
+        soundKeys[selectedKey].setVoiceSettings(new VoiceSettings(
+                (Integer) voiceLimit.getValue(),
+                (Integer) priority.getValue(),
+                StealPolicy.values()[stealPolicy.getSelectedIndex()],
+                retrigger.isSelected()));
+        publishKeyMap();
+        saveButtonMap();
+    }
+
+    // Gives the sounds and the voice settings of every key to the sound player, which passes them to the audio thread.
+    private void publishKeyMap() {
+        String[][] names = new String[soundKeys.length][];
+        VoiceSettings[] settings = new VoiceSettings[soundKeys.length];
+        for(int i = 0; i < soundKeys.length; i++) {
+            names[i] = soundKeys[i].getClipName();
+            settings[i] = soundKeys[i].getVoiceSettings();
+        }
+        soundPlayer.updateKeyMap(names, settings);
     }
 
     public void manageRep() throws java.io.IOException {
@@ -340,6 +619,7 @@ public class MainWindow implements KeyListener {
             currentRepository = System.getProperty("user.home") + "/LunchPad Repositories/" + selectedRepo + "/";
             System.out.println(currentRepository);
             soundPackageLocation.setText(selectedRepo);
+            Startup.rememberRepository(selectedRepo);
             remapButtons(true, true);
             selectKey(selectedKey);
             renameButtons();
@@ -347,30 +627,48 @@ public class MainWindow implements KeyListener {
     }
 
     public void changeSound(int mode) {
-        try {
+        AudioMgr audioMgr = new AudioMgr(currentRepository, soundPackageLocation.getText(), AudioMgr.SELECT_AUDIO);
+        if(!audioMgr.cancelled){
+            String selectedSound = audioMgr.getSelectedName();
+            soundKeys[selectedKey].addSound(selectedSound, mode);
+            publishKeyMap();
             saveButtonMap();
-            AudioMgr audioMgr = new AudioMgr(currentRepository, soundPackageLocation.getText(), AudioMgr.SELECT_AUDIO);
-            if(!audioMgr.cancelled){
-                remapButtons(false, true);
-                soundKeys[selectedKey].addSound(audioMgr.getSelectedName(), mode);
-                selectKey(selectedKey);
-            }
-        } catch (IOException e) {throw new RuntimeException(e);}
+            // Only the newly assigned sound is loaded, and the previous one is unloaded if no key uses it anymore.
+            reconcileSounds();
+            selectKey(selectedKey);
+        }
     }
 
     public void close() throws java.io.IOException{
         mWindow.setVisible(false);
+        if(repositoryWatcher != null) repositoryWatcher.close();
         saveButtonMap();
+        closeMapping(true); // Waits until the mapping is saved.
         System.out.println("Program ended.");
         System.exit(0);
     }
 
-    public void addSound() {
+    /*
+     * Saves the mapping of the current repository and closes its writer. Does nothing if it's closed already.
+     * When tellUser is true, a mapping that cannot be saved is also reported in a dialog. It's false when the JVM
+     * shuts down.
+     */
+    private void closeMapping(boolean tellUser) {
+        MappingWriter writer = mappingWriter;
+        if (writer == null) return;
         try {
-            saveButtonMap();
-            new AudioMgr(currentRepository, soundPackageLocation.getText(), AudioMgr.MANAGE_AUDIO);
-            remapButtons(false, true);
-        } catch (IOException e) {throw new RuntimeException(e);}
+            writer.close();
+        } catch (IOException e) {
+            System.out.println("Cannot save the key mapping: " + e.getMessage());
+            if (tellUser)
+                JOptionPane.showMessageDialog(null, bundle.getString("MW_MAPPING_SAVE_ERR") + "\n" + e.getMessage(),
+                        bundle.getString("MW_MAPPING_ERR_TTL"), JOptionPane.WARNING_MESSAGE, null);
+        }
+    }
+
+    public void addSound() {
+        new AudioMgr(currentRepository, soundPackageLocation.getText(), AudioMgr.MANAGE_AUDIO);
+        reconcileSounds();
     }
 
     public void about() {
@@ -382,38 +680,49 @@ public class MainWindow implements KeyListener {
 
     @Override
     public void keyPressed(KeyEvent e) {
-            if (Character.isLetter(e.getKeyChar()) || e.getKeyChar() == '-'){
-                try {
-                    soundPlayer.playSound(soundKeys[keyIndexes.get(Character.toUpperCase(e.getKeyChar()))].getSoundAt(SoundKey.getSoundIndex()));
-                    soundKeys[keyIndexes.get(Character.toUpperCase(e.getKeyChar()))].setBackground(WindowActions.PRESSED_KEY_BACKGROUND);
-                } catch (NullPointerException nofile) {
-                    soundKeys[keyIndexes.get(Character.toUpperCase(e.getKeyChar()))].addSound("None", SoundKey.getSoundIndex());
+            long pressedAt = System.nanoTime(); // Start of the trigger latency, taken before anything else
+            int key = soundKeyIndex(e);
+            if (key >= 0){
+                // Shift held: restart the sound. Otherwise: start a new instance of the sound.
+                if (soundPlayer.playKey(key, SoundKey.getSoundIndex(), shiftHeld, pressedAt)) {
+                    soundKeys[key].setBackground(WindowActions.PRESSED_KEY_BACKGROUND);
+                } else {
+                    // The sound of the key is gone, so the key is unassigned.
+                    soundKeys[key].addSound("None", SoundKey.getSoundIndex());
+                    publishKeyMap();
                     selectKey(selectedKey);
-
                 }
             } else if (e.getKeyCode() == KeyEvent.VK_RIGHT) {
                 SoundKey.switchSound(SoundKey.RIGHT);
                 selectedChannelLabel.setIcon(souncChannelIcon[SoundKey.RIGHT]);
                 for(SoundKey k : soundKeys) k.changeNameLabel(k.getSoundAt(SoundKey.RIGHT));
+                updateKeyStates();
             } else if(e.getKeyCode() == KeyEvent.VK_LEFT) {
                 SoundKey.switchSound(SoundKey.LEFT);
                 selectedChannelLabel.setIcon(souncChannelIcon[SoundKey.LEFT]);
                 for(SoundKey k : soundKeys) k.changeNameLabel(k.getSoundAt(SoundKey.LEFT));
+                updateKeyStates();
             } else if(e.getKeyCode() == KeyEvent.VK_SHIFT){
 
-                SoundPlayer.playOneSound = true;
+                shiftHeld = true;
                  soundPlayer.stopSound();
             }
     }
 
     @Override
     public void keyReleased(KeyEvent e) {
-
-            if (Character.isLetter(e.getKeyChar()) || e.getKeyChar() == '-')
-                soundKeys[keyIndexes.get(Character.toUpperCase(e.getKeyChar()))].setBackground(WindowActions.BUTTON_COLOR);
+            int key = soundKeyIndex(e);
+            if (key >= 0)
+                soundKeys[key].setBackground(WindowActions.BUTTON_COLOR);
             if(e.getKeyCode() == KeyEvent.VK_SHIFT)
-                SoundPlayer.playOneSound = false;
+                shiftHeld = false;
 
 
     }
+
+    // Returns the index of the sound key of the event, or -1 if the event isn't about a sound key.
+    private int soundKeyIndex(KeyEvent e) {
+        int keyCode = e.getKeyCode();
+        return keyCode >= 0 && keyCode < keyCodeIndexes.length ? keyCodeIndexes[keyCode] : -1;
+    }
 }
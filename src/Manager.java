@@ -18,14 +18,25 @@ import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.Color;
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.ResourceBundle;
-import javax.swing.DefaultListModel;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import javax.swing.AbstractListModel;
 import javax.swing.JButton;
 import javax.swing.JLabel;
 import javax.swing.JList;
 import javax.swing.JScrollPane;
 import javax.swing.ListSelectionModel;
 import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
 
 //JList <Type> name = new JList<>(parameters); This is how you declare
 
@@ -47,7 +58,7 @@ import javax.swing.SwingConstants;
  * @since 1.0
  */
 public abstract class Manager {
-    protected DefaultListModel<String> DLM; // Holds the contents of the JList.
+    protected ItemListModel DLM; // Holds the contents of the JList.
     protected JList<String> fileList; // Shows the DLM object in a GUI environment
     protected JScrollPane scroller; // Makes JList scrollable
     protected JButton remove, use, cancel, importF;
@@ -56,6 +67,9 @@ public abstract class Manager {
     protected boolean cancelled; // Holds whether the user clicked Dismiss button => helps
     protected File fileDir; // The directoey worked on by the manager
     protected static ResourceBundle bundle = ResourceBundle.getBundle("ManagerStrings");
+    private SwingWorker<Void, String> listing; // The listing of the directory in progress, null if there is none
+    private String listedSuffix = ""; // The suffix of the items that are listed
+    private RepositoryWatcher watcher; // Updates the list when the directory changes, null if it can't be watched
 
     public Manager(String path){
         fileDir = new File(path); // Assigns the working directory to fileDir.
@@ -68,8 +82,12 @@ public abstract class Manager {
         dialog.getContentPane().setBackground(WindowActions.PANEL_COLOR);
         dialog.setResizable(false);
 
-        DLM = new DefaultListModel<>(); // Initializing the DLM DefaultListModel that will contain the Items.
-        fileList = new JList<>(DLM); // Initializing fileList with DLM as the DefaultListModel
+        DLM = new ItemListModel(); // Initializing the DLM ItemListModel that will contain the Items.
+        fileList = new JList<>(DLM); // Initializing fileList with DLM as the ItemListModel
+        // Every cell has the same size, so the list never measures its items, however many there are.
+        // Names that are too long end with "...", the selected one is shown in full under the list.
+        fileList.setPrototypeCellValue("Lunchpad");
+        fileList.setFixedCellWidth(275);
         fileList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION); // Allow single-item-selection only
         fileList.setBackground(WindowActions.SECONDARY_COLOR);
         fileList.setForeground(WindowActions.WHITE_COLOR);
@@ -106,6 +124,11 @@ public abstract class Manager {
         importF.setFocusable(false);
         importF.addActionListener(e -> importF()); // assigning importF() method to the button
 
+        try { // The items that are added or removed outside the manager show up in the list while it's open.
+            watcher = RepositoryWatcher.watch(fileDir, names -> SwingUtilities.invokeLater(() -> itemsChanged(names)));
+        } catch (IOException e) {
+            System.out.println("The directory cannot be watched: " + e.getMessage());
+        }
     }
 
     // These three methods are abstract to ensure that each derivation of this class implement their own version of
@@ -131,14 +154,98 @@ public abstract class Manager {
      * @since 1.0
      */
     protected void refresh(String exclusiveSuffix){
-        String[] files = fileDir.list(); // List the contents of the directory in an array of String
+        refresh(exclusiveSuffix, null);
+    }
+
+    /**
+     * Refreshing the content of DLM with the suffix passed as parameter, and selecting an item as soon as it's listed.
+     * The directory is listed in the background and its items are added in batches, so the first items are shown
+     * right away, even if the directory has thousands of them.
+     * @param exclusiveSuffix only include the items with the given suffix. Pass empty string for no suffix.
+     * @param selection The item to be selected, null to select nothing.
+     * @since 1.3
+     */
+    protected void refresh(String exclusiveSuffix, String selection){
+        if(listing != null) listing.cancel(false); // The previous listing is outdated.
+        listedSuffix = exclusiveSuffix;
         DLM.clear(); // Clear the DLM
-        assert files != null; // Terminate if file doesn't exist somehow.
-        for(String item : files)
-            if(item.toCharArray()[0] != '.' && item.endsWith(exclusiveSuffix)) { //Just to guarantee that .DS_Store isn't
-                                                                                 //included and the filename ends with the suffix.
-                DLM.addElement(item);
+        listing = new SwingWorker<Void, String>() {
+            @Override
+            protected Void doInBackground() throws IOException {
+                try(DirectoryStream<Path> items = Files.newDirectoryStream(fileDir.toPath())) {
+                    for(Path path : items) {
+                        if(isCancelled()) break;
+                        String item = path.getFileName().toString();
+                        if(isListed(item, exclusiveSuffix)) publish(item);
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            protected void process(List<String> items) { // A batch of the published items, on the EDT.
+                if(listing != this) return;
+                DLM.addAll(items);
+                if(selection != null && items.contains(selection)) fileList.setSelectedValue(selection, true);
+            }
+
+            @Override
+            protected void done() {
+                if(listing == this) listing = null;
+                try { get(); }
+                catch (CancellationException e) { /* Replaced by a newer listing. */ }
+                catch (InterruptedException | ExecutionException e) { e.printStackTrace(); }
+            }
+        };
+        listing.execute();
+    }
+
+    /*
+     * Adds the changed items that exist to the list and removes the ones that are gone, without listing the whole
+     * directory again. Runs on the EDT.
+     */
+    private void itemsChanged(Set<String> names){
+        if(names == null || listing != null) { // Any item may have changed, or the listing would add them again.
+            refresh(listedSuffix, getSelectedName());
+            return;
+        }
+        for(String item : names) {
+            if(!isListed(item, listedSuffix)) continue;
+            if(new File(fileDir, item).exists()) {
+                if(!DLM.contains(item)) DLM.add(item);
+            } else {
+                DLM.remove(item);
+            }
+        }
+        if(fileList.getSelectedValue() == null) { // The selected item is gone.
+            if(use != null) use.setEnabled(false);
+            if(remove != null) remove.setEnabled(false);
+        }
+    }
+
+    /**
+     * Lists the items of the directory the way {@code refresh(...)} shows them, without touching any component.
+     * @param directory The directory to be listed.
+     * @param exclusiveSuffix only include the items with the given suffix. Pass empty string for no suffix.
+     * @return The names of the items.
+     * @since 1.3
+     */
+    static List<String> listItems(File directory, String exclusiveSuffix){
+        ArrayList<String> items = new ArrayList<>();
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(directory.toPath())) {
+            for(Path path : stream) {
+                String item = path.getFileName().toString();
+                if(isListed(item, exclusiveSuffix)) items.add(item);
             }
+        } catch (IOException e) {
+            throw new RuntimeException(e); // The directory doesn't exist somehow.
+        }
+        return items;
+    }
+
+    // Just to guarantee that .DS_Store isn't included and the filename ends with the suffix.
+    private static boolean isListed(String item, String exclusiveSuffix){
+        return item.charAt(0) != '.' && item.endsWith(exclusiveSuffix);
     }
 
 
@@ -175,6 +282,7 @@ public abstract class Manager {
      * Dismisses the dialog with assigning false to {@code cancelled} attribute.
      */
     protected void use(){
+        stopWatching();
         dialog.setVisible(false);
         cancelled = false;
     }
@@ -183,11 +291,17 @@ public abstract class Manager {
      * Dismisses the dialog with assigning false to {@code cancelled} attribute.
      */
     protected void cancel(){
+        stopWatching();
         DLM.clear();
         dialog.setVisible(false);
         cancelled = true;
     }
 
+    private void stopWatching(){
+        if(watcher != null) watcher.close();
+        watcher = null;
+    }
+
     /**
      * Returns the value of the selected item.
      * @return The value of the selected item.
@@ -197,4 +311,55 @@ public abstract class Manager {
         return fileList.getSelectedValue();
     }
 
+    /**
+     * The items of the list. Unlike DefaultListModel, it adds a whole batch of items with a single event,
+     * so the list is updated once per batch instead of once per item.
+     * @since 1.3
+     */
+    protected static final class ItemListModel extends AbstractListModel<String> {
+        private static final long serialVersionUID = 1L;
+
+        private final ArrayList<String> items = new ArrayList<>();
+
+        @Override
+        public int getSize() {
+            return items.size();
+        }
+
+        @Override
+        public String getElementAt(int index) {
+            return items.get(index);
+        }
+
+        public boolean contains(String item) {
+            return items.contains(item);
+        }
+
+        public void add(String item) {
+            items.add(item);
+            fireIntervalAdded(this, items.size() - 1, items.size() - 1);
+        }
+
+        public void remove(String item) {
+            int index = items.indexOf(item);
+            if(index < 0) return;
+            items.remove(index);
+            fireIntervalRemoved(this, index, index);
+        }
+
+        public void addAll(List<String> batch) {
+            if(batch.isEmpty()) return;
+            int first = items.size();
+            items.addAll(batch);
+            fireIntervalAdded(this, first, items.size() - 1);
+        }
+
+        public void clear() {
+            if(items.isEmpty()) return;
+            int last = items.size() - 1;
+            items.clear();
+            fireIntervalRemoved(this, 0, last);
+        }
+    }
+
 }
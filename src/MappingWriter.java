@@ -0,0 +1,151 @@
+/*
+ * Lunchpad - A Launchpad/Soundboard application.
+ * This file is part of Lunchpad.
+ *
+ * Lunchpad is free software: you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * Lunchpad is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Lunchpad. If not, see
+ * <https://www.gnu.org/licenses/>.
+ * */
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saves the changes of a KeyMappingStore in the background, so that editing the mapping never waits for the disk.
+ * <pre></pre>
+ * {@code submit(...)} only keeps the new mapping in memory. The writer thread saves it a moment later, so a burst
+ * of edits, like spinning the voice limit of a key, is saved once, with the mapping as it is at the end of the
+ * burst. {@code flush()} and {@code close()} wait until everything that was submitted is on the disk. Call
+ * {@code close()} before switching to another repository and before the application exits. Once the writer is
+ * closed, {@code flush()} and {@code close()} do nothing, since everything is saved already.
+ * <pre></pre>
+ * If a save fails, the mapping stays pending and is saved again a moment later, or with the next change or flush.
+ * If it still cannot be saved when the writer is closed, {@code close()} throws instead of compacting the store.
+ * <pre>Ex:
+ *      {@code
+ *      MappingWriter writer = new MappingWriter(KeyMappingStore.open(my_repository, null));
+ *      writer.submit(names, settings); // Returns right away
+ *      writer.close();                 // Saved and compacted
+ *      }
+ * </pre>
+ * @since 1.3
+ */
+public final class MappingWriter {
+    private static final long DELAY_MS = 250;  // How long the writer waits for more edits before saving
+    private static final long RETRY_MS = 2000; // How long the writer waits before saving again after a failure
+
+    private final KeyMappingStore store;
+    private final ScheduledThreadPoolExecutor writer = new ScheduledThreadPoolExecutor(1, r -> {
+        Thread thread = new Thread(r, "Lunchpad Mapping Writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private String[][] pendingNames;          // The mapping waiting to be saved, null if there is none
+    private VoiceSettings[] pendingSettings;
+    private boolean scheduled;                // Whether a save is scheduled for the pending mapping
+    private final Object closing = new Object(); // Held by close(), so the store is closed only once
+
+    /**
+     * @param store The mapping that is saved by the writer.
+     * @since 1.3
+     */
+    public MappingWriter(KeyMappingStore store) {
+        this.store = store;
+        writer.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    /**
+     * Submits the mapping to be saved in the background. Can be called from any thread.
+     * @param names The sound of every key in every channel, indexed as [key][channel].
+     * @param settings The voice settings of every key.
+     * @since 1.3
+     */
+    public synchronized void submit(String[][] names, VoiceSettings[] settings) {
+        pendingNames = new String[names.length][];
+        for (int i = 0; i < names.length; i++) pendingNames[i] = names[i].clone();
+        pendingSettings = settings.clone();
+        if (!scheduled) {
+            scheduled = true;
+            writer.schedule(this::write, DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Waits until every submitted mapping is saved. Can be called from any thread but the writer thread.
+     * @since 1.3
+     */
+    public void flush() {
+        if (writer.isShutdown()) return; // close() has saved everything.
+        try {
+            writer.submit(this::write).get();
+        } catch (RejectedExecutionException e) {
+            // close() was called meanwhile, and it saves everything too.
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Saves every submitted mapping, compacts the store and stops the writer thread. Does nothing if the writer
+     * is closed already.
+     * @throws IOException If the last submitted mapping cannot be saved, in which case the store isn't compacted,
+     * or if the store cannot be compacted.
+     * @since 1.3
+     */
+    public void close() throws IOException {
+        synchronized (closing) {
+            if (writer.isShutdown()) return;
+            flush();
+            writer.shutdown();
+            synchronized (this) {
+                if (pendingNames != null) throw new IOException("The last changes of the key mapping cannot be saved.");
+            }
+            store.close();
+        }
+    }
+
+    // Runs on the writer thread. Saves the pending mapping, if there is one.
+    private void write() {
+        String[][] names;
+        VoiceSettings[] settings;
+        synchronized (this) {
+            names = pendingNames;
+            settings = pendingSettings;
+            pendingNames = null;
+            pendingSettings = null;
+            scheduled = false;
+        }
+        if (names == null) return;
+        try {
+            store.update(names, settings);
+        } catch (IOException e) {
+            System.out.println("Cannot save the key mapping: " + e.getMessage());
+            synchronized (this) {
+                if (pendingNames == null) { // Nothing newer was submitted meanwhile, try again later.
+                    pendingNames = names;
+                    pendingSettings = settings;
+                }
+                if (!scheduled && !writer.isShutdown()) {
+                    try {
+                        writer.schedule(this::write, RETRY_MS, TimeUnit.MILLISECONDS);
+                        scheduled = true;
+                    } catch (RejectedExecutionException rejected) {
+                        // close() is stopping the writer, and it reports what is still pending.
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,468 @@
+/*
+ * Lunchpad - A Launchpad/Soundboard application.
+ * This file is part of Lunchpad.
+ *
+ * Lunchpad is free software: you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * Lunchpad is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Lunchpad. If not, see
+ * <https://www.gnu.org/licenses/>.
+ * */
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The software mixer that plays every sound of the application through a single SourceDataLine.
+ * <pre></pre>
+ * Instead of opening a Clip for every instance of a sound, the engine keeps a fixed pool of voices.
+ * A voice is only a reference to a Sample and a read position, so playing the same sound several times
+ * at once doesn't copy the PCM data. A dedicated render thread sums the active voices block by block
+ * and writes the result to the line.
+ * <pre></pre>
+ * Voices are allocated according to the VoiceSettings of the triggered sound. When the sound reaches its voice
+ * limit, or every voice of the engine is busy, a playing voice is taken over according to a StealPolicy.
+ * Free voices are kept in a stack and playing voices in lists ordered by their start, one for the whole engine
+ * and one for each sample, so finding a free voice or the oldest voice doesn't depend on the number of voices.
+ * <pre></pre>
+ * The voices are only touched by the render thread. Other threads post commands to a lock-free queue, which the
+ * render thread runs before mixing each block. Keys are triggered by their index in the KeyMap that was
+ * published last, so the GUI never waits for the audio thread and the audio thread never waits for the GUI.
+ * Commands are encoded in a single {@code long} and the queue is preallocated, so triggering a key doesn't
+ * allocate anything.
+ * <pre></pre>
+ * Every trigger carries the {@code System.nanoTime()} at which its key was pressed. When the block that starts the
+ * sound has been written to the line, the time until its first frame leaves the line is recorded in the
+ * LatencyStats of the engine.
+ * <pre></pre>
+ * Stopping every sound only walks the list of playing voices. Instead of being cut, the voices fade out over
+ * a short ramp, which keeps the speakers from clicking. The ramp starts with the next block, so a stop is
+ * heard at once.
+ * <pre></pre>
+ * Streamed samples are read from their resident head first, then from their mapped file. A ReadAhead thread
+ * reads the file ahead of every voice that plays one of them, so the render thread doesn't wait for the disk.
+ * <pre></pre>
+ * The total number of voices, the policy used when all of them are busy and the length of the fade-out can be set
+ * with the system properties {@code lunchpad.maxVoices} (default: 64, at most 256), {@code lunchpad.stealPolicy}
+ * (default: OLDEST) and {@code lunchpad.fadeMs} (default: 10, 0 cuts the sounds at once).
+ * <pre>Ex:
+ *      {@code
+ *      MixerEngine engine = new MixerEngine();
+ *      engine.publish(my_key_map);
+ *      engine.trigger(my_key, my_channel, false);
+ *      }
+ * </pre>
+ * @since 1.3
+ */
+public class MixerEngine implements Runnable {
+    public static final float SAMPLE_RATE = 44100f;
+    public static final int CHANNELS = 2;
+    // Every Sample is converted to this format while loading, so the render thread never converts anything.
+    public static final AudioFormat FORMAT = new AudioFormat(SAMPLE_RATE, 16, CHANNELS, true, false);
+
+    private static final int POOL_SIZE = 256;       // Upper limit of lunchpad.maxVoices
+    public static final int MAX_VOICES = Math.max(1, Math.min(POOL_SIZE, Integer.getInteger("lunchpad.maxVoices", 64)));
+    public static final StealPolicy GLOBAL_STEAL_POLICY = globalStealPolicy();
+    // Length of the fade-out of a stopped voice, in frames.
+    static final int FADE_FRAMES = (int) (Math.max(0, Integer.getInteger("lunchpad.fadeMs", 10)) * SAMPLE_RATE / 1000);
+    private static final int BLOCK_FRAMES = 256;    // Frames mixed in a single pass of the render thread
+    private static final int LINE_BLOCKS = 4;       // Size of the line buffer, in blocks
+    private static final int COMMAND_CAPACITY = 1024; // Commands that can wait for the render thread
+
+    // Layout of an encoded command: bits 0-15 key, bits 16-23 channel, bit 24 restart, bit 32 stop all.
+    private static final long RESTART_FLAG = 1L << 24, STOP_ALL = 1L << 32;
+
+    private final Voice[] voices;
+    private final int[] freeVoices;    // Stack of the indexes of the voices that aren't playing
+    private int freeCount;
+    private Voice oldestVoice, newestVoice; // Playing voices, in the order they were started
+    private int activeCount;
+    private final SourceDataLine line;
+    private final int[] mixBuffer;     // Sum of the voices, wider than 16 bits so that it doesn't overflow
+    private final byte[] outBuffer;    // The clamped mix in FORMAT, written to the line
+    private final Thread renderThread, readAheadThread;
+    private final AtomicReferenceArray<Sample> streamedSamples; // Streamed sample of every voice, for the ReadAhead
+    private final AtomicIntegerArray streamedPositions;         // Position of every voice, for the ReadAhead
+    private volatile boolean running;
+    private final CommandQueue commands; // Posted by any thread, run by the render thread
+    private volatile KeyMap keyMap = KeyMap.EMPTY;
+    private final LatencyStats latencyStats = new LatencyStats();
+    private final int[] startedKeys;      // Keys whose sound started in the block being mixed
+    private final long[] startedPressTimes; // When those keys were pressed
+    private int startedCount;
+
+    // Reads lunchpad.stealPolicy, falling back to OLDEST if it isn't the name of a policy.
+    private static StealPolicy globalStealPolicy() {
+        String name = System.getProperty("lunchpad.stealPolicy", StealPolicy.OLDEST.name());
+        try {
+            return StealPolicy.valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            System.out.println("Unknown steal policy " + name + ", using " + StealPolicy.OLDEST);
+            return StealPolicy.OLDEST;
+        }
+    }
+
+    /**
+     * Creates a MixerEngine that plays through the default output device of the system.
+     * @throws LineUnavailableException If the output device cannot be opened in FORMAT.
+     * @since 1.3
+     */
+    public MixerEngine() throws LineUnavailableException {
+        this(AudioSystem.getSourceDataLine(FORMAT));
+    }
+
+    /**
+     * Creates a MixerEngine that plays through the given line. The line is opened and started by the engine.
+     * @param line The line that the mix will be written to.
+     * @throws LineUnavailableException If the line cannot be opened in FORMAT.
+     * @since 1.3
+     */
+    public MixerEngine(SourceDataLine line) throws LineUnavailableException {
+        this(line, true);
+    }
+
+    /*
+     * Creates a MixerEngine that plays through the given line. Without the render thread, nothing is mixed until
+     * renderBlock() is called, which lets the benchmarks drive the engine one block at a time.
+     */
+    MixerEngine(SourceDataLine line, boolean startThread) throws LineUnavailableException {
+        this.line = line;
+        voices = new Voice[MAX_VOICES];
+        freeVoices = new int[MAX_VOICES];
+        for (int i = 0; i < MAX_VOICES; i++) {
+            voices[i] = new Voice(i);
+            freeVoices[freeCount++] = MAX_VOICES - 1 - i;
+        }
+        commands = new CommandQueue(COMMAND_CAPACITY);
+        streamedSamples = new AtomicReferenceArray<>(MAX_VOICES);
+        streamedPositions = new AtomicIntegerArray(MAX_VOICES);
+        startedKeys = new int[COMMAND_CAPACITY];
+        startedPressTimes = new long[COMMAND_CAPACITY];
+        mixBuffer = new int[BLOCK_FRAMES * CHANNELS];
+        outBuffer = new byte[BLOCK_FRAMES * FORMAT.getFrameSize()];
+
+        line.open(FORMAT, outBuffer.length * LINE_BLOCKS);
+        line.start();
+
+        running = true;
+        if (startThread) {
+            renderThread = new Thread(this, "Lunchpad Mixer");
+            renderThread.setDaemon(true); // The engine shouldn't keep the application alive after the window closes.
+            renderThread.setPriority(Thread.MAX_PRIORITY);
+            renderThread.start();
+            readAheadThread = new Thread(new ReadAhead(streamedSamples, streamedPositions), "Lunchpad Read-Ahead");
+            readAheadThread.setDaemon(true);
+            readAheadThread.start();
+        } else {
+            renderThread = readAheadThread = null;
+        }
+    }
+
+    /**
+     * Publishes the mapping that the following triggers will use. The snapshot replaces the previous one at once.
+     * @param keyMap The new mapping.
+     * @since 1.3
+     */
+    public void publish(KeyMap keyMap) {
+        this.keyMap = keyMap;
+    }
+
+    /**
+     * Asks the render thread to play the sample of the given key in the given channel, with the voice settings of
+     * the key. Returns at once, the sample starts with the next mixed block.
+     * <pre></pre>
+     * If {@code restart} or the retrigger option of the settings is true, the instances of the sample that are
+     * playing are stopped and the sample starts over. Otherwise a new voice is layered on top of them. If the
+     * sample already plays on as many voices as the voice limit of the settings, one of them is taken over
+     * according to the steal policy of the settings. If every voice of the engine is busy, one of them is taken
+     * over according to GLOBAL_STEAL_POLICY.
+     * @param key Index of the key in the KeyMap.
+     * @param channel The channel whose sample should be played.
+     * @param restart Whether the playing instances of the sample should be replaced.
+     * @since 1.3
+     */
+    public void trigger(int key, int channel, boolean restart) {
+        trigger(key, channel, restart, System.nanoTime());
+    }
+
+    /**
+     * Same as {@code trigger(key, channel, restart)}, but the latency of the trigger is measured from the given
+     * time instead of the moment of the call.
+     * @param pressedAt The {@code System.nanoTime()} at which the key was pressed.
+     * @since 1.3
+     */
+    public void trigger(int key, int channel, boolean restart, long pressedAt) {
+        // If the queue is full, the render thread is far behind and dropping the trigger is the best option.
+        commands.offer((key & 0xFFFF) | (long) (channel & 0xFF) << 16 | (restart ? RESTART_FLAG : 0), pressedAt);
+    }
+
+    /**
+     * Asks the render thread to stop every voice that is playing.
+     * @since 1.3
+     */
+    public void stopAll() {
+        commands.offer(STOP_ALL);
+    }
+
+    /**
+     * @return The trigger latencies measured by the engine. They can be read and reset from any thread.
+     * @since 1.3
+     */
+    public LatencyStats getLatencyStats() {
+        return latencyStats;
+    }
+
+    /**
+     * Stops the render thread and closes the line. The engine can't be used afterwards.
+     * @since 1.3
+     */
+    public void shutdown() {
+        running = false;
+        if (renderThread != null) renderThread.interrupt();
+        if (readAheadThread != null) readAheadThread.interrupt();
+        line.stop();
+        line.close();
+    }
+
+    // Body of the render thread. Blocks on line.write, which paces the loop to the speed of the device.
+    @Override
+    public void run() {
+        while (running) renderBlock();
+    }
+
+    // Runs the posted commands, then mixes a block and writes it to the line.
+    void renderBlock() {
+        runCommands();
+        mix();
+        line.write(outBuffer, 0, outBuffer.length);
+        if (startedCount > 0) recordLatencies();
+    }
+
+    /*
+     * Records the latency of the sounds that started in the block that was just written. The block is at the end
+     * of the frames queued in the line, so its first frame leaves the line once the frames before it are played.
+     */
+    private void recordLatencies() {
+        long queuedFrames = (line.getBufferSize() - line.available()) / FORMAT.getFrameSize() - BLOCK_FRAMES;
+        long playedAt = System.nanoTime() + Math.max(0, queuedFrames) * 1_000_000_000L / (long) SAMPLE_RATE;
+        for (int i = 0; i < startedCount; i++) latencyStats.record(startedKeys[i], playedAt - startedPressTimes[i]);
+        startedCount = 0;
+    }
+
+    // Runs the commands that were posted since the previous block, in the order they were posted.
+    private void runCommands() {
+        long command;
+        while ((command = commands.poll()) != CommandQueue.EMPTY) {
+            if ((command & STOP_ALL) != 0) {
+                stopVoices();
+                continue;
+            }
+            int key = (int) (command & 0xFFFF), channel = (int) (command >> 16 & 0xFF);
+            KeyMap map = keyMap;
+            Sample sample = map.sampleAt(key, channel);
+            if (sample != null && play(sample, map.settingsAt(key), (command & RESTART_FLAG) != 0)
+                    && startedCount < startedKeys.length) {
+                startedKeys[startedCount] = key;
+                startedPressTimes[startedCount++] = commands.getLastStamp();
+            }
+        }
+    }
+
+    // Fades out every playing voice, or stops them at once if there is no fade-out.
+    private void stopVoices() {
+        if (FADE_FRAMES == 0) {
+            while (oldestVoice != null) release(oldestVoice);
+            return;
+        }
+        for (Voice voice = oldestVoice; voice != null; voice = voice.next)
+            if (voice.fadeLeft == 0) voice.fadeLeft = FADE_FRAMES; // Voices that are fading already keep their ramp.
+    }
+
+    // Starts playing the sample, see trigger(...). Returns false if the trigger was dropped.
+    private boolean play(Sample sample, VoiceSettings settings, boolean restart) {
+        if (restart || settings.retrigger) {
+            while (sample.firstVoice != null) release(sample.firstVoice);
+        }
+
+        Voice target;
+        if (sample.voiceCount >= settings.voiceLimit) {
+            target = chooseVictim(sample.firstVoice, true, settings.stealPolicy, settings.priority);
+        } else if (activeCount >= MAX_VOICES) {
+            target = chooseVictim(oldestVoice, false, GLOBAL_STEAL_POLICY, settings.priority);
+        } else {
+            target = voices[freeVoices[--freeCount]];
+        }
+        if (target == null) return false; // The policy doesn't allow taking over a voice, the trigger is dropped.
+
+        if (target.sample != null) unlink(target);
+        target.sample = sample;
+        target.position = 0;
+        target.priority = settings.priority;
+        target.level = Integer.MAX_VALUE; // Just started, so it shouldn't be taken for the quietest one.
+        target.fadeLeft = 0;
+        link(target);
+        streamedPositions.lazySet(target.index, 0);
+        streamedSamples.lazySet(target.index, sample.isStreamed() ? sample : null);
+        return true;
+    }
+
+    // Sums every active voice into mixBuffer, then clamps the sum into outBuffer.
+    private void mix() {
+        Arrays.fill(mixBuffer, 0);
+        for (Voice voice = oldestVoice; voice != null; ) {
+            Voice next = voice.next; // The voice may be released below.
+            Sample sample = voice.sample;
+            int frames = Math.min(BLOCK_FRAMES, sample.frames - voice.position);
+            if (voice.fadeLeft > 0) frames = Math.min(frames, voice.fadeLeft);
+
+            // The resident part first, then the streamed part, if the sample has one.
+            int resident = Math.max(0, Math.min(frames, sample.headFrames - voice.position));
+            int level = mixFrames(sample.pcm, voice.position, 0, resident, voice.fadeLeft);
+            if (resident < frames) {
+                level = Math.max(level, mixFrames(sample.stream, voice.position + resident, resident,
+                        frames - resident, voice.fadeLeft));
+                streamedPositions.lazySet(voice.index, voice.position + frames);
+            }
+
+            boolean finished = voice.position + frames >= sample.frames;
+            if (voice.fadeLeft > 0) {
+                voice.fadeLeft -= frames;
+                finished |= voice.fadeLeft == 0;
+            }
+            voice.level = level;
+            voice.position += frames;
+            if (finished) release(voice);
+            voice = next;
+        }
+
+        for (int i = 0; i < mixBuffer.length; i++) {
+            int value = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, mixBuffer[i]));
+            outBuffer[2 * i] = (byte) value;            // FORMAT is little-endian
+            outBuffer[2 * i + 1] = (byte) (value >> 8);
+        }
+    }
+
+    /*
+     * Adds the frames of the source, starting at the given frame, into mixBuffer, starting at the given frame of
+     * the block. If fadeLeft isn't 0, the gain falls linearly from fadeLeft / FADE_FRAMES at the first frame of the
+     * block to 0, one step per frame. Returns the peak of the mixed values.
+     */
+    private int mixFrames(ShortBuffer source, int sourceFrame, int blockFrame, int frames, int fadeLeft) {
+        int offset = sourceFrame * CHANNELS, start = blockFrame * CHANNELS, level = 0;
+        if (fadeLeft == 0) {
+            for (int i = 0; i < frames * CHANNELS; i++) {
+                short value = source.get(offset + i);
+                mixBuffer[start + i] += value;
+                level = Math.max(level, Math.abs(value));
+            }
+        } else {
+            for (int f = 0, i = 0; f < frames; f++) {
+                int gain = fadeLeft - blockFrame - f;
+                for (int c = 0; c < CHANNELS; c++, i++) {
+                    int value = source.get(offset + i) * gain / FADE_FRAMES;
+                    mixBuffer[start + i] += value;
+                    level = Math.max(level, Math.abs(value));
+                }
+            }
+        }
+        return level;
+    }
+
+    /*
+     * Picks the voice to be taken over from the list starting at the given voice, which is ordered from the oldest
+     * to the newest. sampleList tells whether it's the list of a sample or the list of the whole engine.
+     * Returns null if the policy doesn't allow taking any of them.
+     */
+    private Voice chooseVictim(Voice first, boolean sampleList, StealPolicy policy, int priority) {
+        switch (policy) {
+            case OLDEST:
+                return first;
+            case QUIETEST: {
+                Voice quietest = first;
+                for (Voice voice = first; voice != null; voice = sampleList ? voice.nextOfSample : voice.next)
+                    if (voice.level < quietest.level) quietest = voice;
+                return quietest;
+            }
+            case LOWEST_PRIORITY: {
+                Voice lowest = first; // Among the voices with the same priority, the oldest one is taken.
+                for (Voice voice = first; voice != null; voice = sampleList ? voice.nextOfSample : voice.next)
+                    if (voice.priority < lowest.priority) lowest = voice;
+                return lowest != null && lowest.priority <= priority ? lowest : null;
+            }
+            default:
+                return null;
+        }
+    }
+
+    // Appends the voice to the end of the list of the engine and the list of its sample.
+    private void link(Voice voice) {
+        voice.previous = newestVoice;
+        voice.next = null;
+        if (newestVoice != null) newestVoice.next = voice;
+        else oldestVoice = voice;
+        newestVoice = voice;
+        activeCount++;
+
+        Sample sample = voice.sample;
+        voice.previousOfSample = sample.lastVoice;
+        voice.nextOfSample = null;
+        if (sample.lastVoice != null) sample.lastVoice.nextOfSample = voice;
+        else sample.firstVoice = voice;
+        sample.lastVoice = voice;
+        sample.voiceCount++;
+    }
+
+    // Removes the voice from the list of the engine and the list of its sample. The voice keeps its sample.
+    private void unlink(Voice voice) {
+        if (voice.previous != null) voice.previous.next = voice.next;
+        else oldestVoice = voice.next;
+        if (voice.next != null) voice.next.previous = voice.previous;
+        else newestVoice = voice.previous;
+        activeCount--;
+
+        Sample sample = voice.sample;
+        if (voice.previousOfSample != null) voice.previousOfSample.nextOfSample = voice.nextOfSample;
+        else sample.firstVoice = voice.nextOfSample;
+        if (voice.nextOfSample != null) voice.nextOfSample.previousOfSample = voice.previousOfSample;
+        else sample.lastVoice = voice.previousOfSample;
+        sample.voiceCount--;
+
+        voice.previous = voice.next = voice.previousOfSample = voice.nextOfSample = null;
+    }
+
+    // Stops the voice and puts it back to the stack of free voices.
+    private void release(Voice voice) {
+        unlink(voice);
+        voice.sample = null; // Don't keep a removed sample alive through a finished voice.
+        streamedSamples.lazySet(voice.index, null);
+        freeVoices[freeCount++] = voice.index;
+    }
+
+    // A single playing instance of a sample. Only accessed by the render thread.
+    static final class Voice {
+        final int index;  // Position in the voices array
+        Sample sample;    // null while the voice is free
+        int position;     // Next frame to be mixed
+        int priority;     // Priority of the sound that started the voice
+        int level;        // Peak of the last mixed block, used by StealPolicy.QUIETEST
+        int fadeLeft;     // Frames left until a stopped voice is silent, 0 while the voice isn't stopped
+        Voice previous, next;                 // Neighbours in the list of the engine
+        Voice previousOfSample, nextOfSample; // Neighbours in the list of the sample
+
+        Voice(int index) {
+            this.index = index;
+        }
+    }
+}
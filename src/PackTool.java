@@ -0,0 +1,92 @@
+/*
+ * Lunchpad - A Launchpad/Soundboard application.
+ * This file is part of Lunchpad.
+ *
+ * Lunchpad is free software: you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * Lunchpad is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Lunchpad. If not, see
+ * <https://www.gnu.org/licenses/>.
+ * */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+
+/**
+ * The command line of Lunchpad, for compiling and checking repository packs without opening any window.
+ * <pre>Ex:
+ *      {@code
+ *      java -cp ... Main --compile-pack "~/LunchPad Repositories/Drums"
+ *      java -cp ... Main --verify-pack "~/LunchPad Repositories/Drums/repository.lpk" other.lpk
+ *      }
+ * </pre>
+ * The sounds are decoded and checked by {@code lunchpad.packThreads} threads, every processor by default.
+ * @since 1.3
+ */
+final class PackTool {
+    private static final int THREADS = Math.max(1,
+            Integer.getInteger("lunchpad.packThreads", Runtime.getRuntime().availableProcessors()));
+
+    private PackTool() {}
+
+    /**
+     * @return Whether the arguments are a command of the tool, instead of the arguments of the application.
+     * @since 1.3
+     */
+    static boolean isCommand(String[] args) {
+        return args.length > 0 && (args[0].equals("--compile-pack") || args[0].equals("--verify-pack"));
+    }
+
+    /**
+     * Runs the command.
+     * @param args The arguments given to the application.
+     * @param out Where the progress and the results are printed.
+     * @return The exit code. 0 if every pack was compiled or verified, 1 if one failed or if sounds were left out
+     * of the pack, 2 for wrong arguments.
+     * @since 1.3
+     */
+    static int run(String[] args, PrintStream out) {
+        if (args[0].equals("--compile-pack") && (args.length == 2 || args.length == 3)) {
+            File repository = new File(args[1]);
+            File pack = args.length == 3 ? new File(args[2]) : new File(repository, RepositoryPack.FILE_NAME);
+            try {
+                long start = System.nanoTime();
+                int skipped = RepositoryPack.compile(repository, pack, THREADS, out).size();
+                out.println("Took " + (System.nanoTime() - start) / 1_000_000 + " ms"
+                        + (skipped == 0 ? "" : ", " + skipped + " sounds skipped"));
+                return skipped == 0 ? 0 : 1;
+            } catch (IOException e) {
+                out.println("Failed: " + e.getMessage());
+                return 1;
+            }
+        }
+        if (args[0].equals("--verify-pack") && args.length >= 2) {
+            int failed = 0;
+            for (int i = 1; i < args.length; i++) {
+                try {
+                    long start = System.nanoTime();
+                    RepositoryPack pack = RepositoryPack.open(new File(args[i]));
+                    long opened = System.nanoTime();
+                    int damaged = pack.verify(THREADS, out);
+                    out.println(args[i] + ": " + pack.size() + " sounds, opened in "
+                            + (opened - start) / 1000 + " us, checked in " + (System.nanoTime() - opened) / 1_000_000
+                            + " ms, " + (damaged == 0 ? "intact" : damaged + " damaged"));
+                    if (damaged > 0) failed++;
+                } catch (IOException e) {
+                    out.println(args[i] + ": " + e.getMessage());
+                    failed++;
+                }
+            }
+            return failed == 0 ? 0 : 1;
+        }
+        out.println("Usage: --compile-pack <repository> [<pack>]");
+        out.println("       --verify-pack <pack>...");
+        return 2;
+    }
+}
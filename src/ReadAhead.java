@@ -0,0 +1,77 @@
+/*
+ * Lunchpad - A Launchpad/Soundboard application.
+ * This file is part of Lunchpad.
+ *
+ * Lunchpad is free software: you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * Lunchpad is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Lunchpad. If not, see
+ * <https://www.gnu.org/licenses/>.
+ * */
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The thread that reads streamed samples ahead of the voices that play them, so the render thread of the
+ * MixerEngine doesn't wait for the disk when it reaches the part of a sound that isn't in memory.
+ * <pre></pre>
+ * The render thread tells which streamed sample every voice plays and where, and this thread touches every page
+ * of the mapped file during the next two seconds of each of them, so that the operating system reads them
+ * in advance. The engine only writes two arrays for it, without allocating or waiting.
+ * @since 1.3
+ */
+final class ReadAhead implements Runnable {
+    private static final int AHEAD_FRAMES = (int) (2 * MixerEngine.SAMPLE_RATE);
+    private static final long PERIOD_MS = 20;
+    private static final int PAGE_VALUES = 4096 / 2; // 16-bit values in a page of memory
+
+    private final AtomicReferenceArray<Sample> samples; // Streamed sample of every voice, null for the others
+    private final AtomicIntegerArray positions;         // Frame that every voice plays
+    private final Sample[] lastSamples;                 // The sample of every voice at the previous pass
+    private final int[] lastPositions;                  // The position of every voice at the previous pass
+    private final int[] readUpTo;                       // The frame of every voice that was read up to
+    private long sink; // The values that were read end up here, so the reads aren't optimized away
+
+    ReadAhead(AtomicReferenceArray<Sample> samples, AtomicIntegerArray positions) {
+        this.samples = samples;
+        this.positions = positions;
+        lastSamples = new Sample[samples.length()];
+        lastPositions = new int[samples.length()];
+        readUpTo = new int[samples.length()];
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                for (int i = 0; i < lastSamples.length; i++) readAhead(i);
+                Thread.sleep(PERIOD_MS);
+            }
+        } catch (InterruptedException e) {
+            // The engine was shut down.
+        }
+    }
+
+    // Reads the next pages of the sample that the voice plays.
+    private void readAhead(int voice) {
+        Sample sample = samples.get(voice);
+        int position = positions.get(voice);
+        // A new sound, or the voice started over: what was read for the voice doesn't count anymore.
+        if (sample != lastSamples[voice] || position < lastPositions[voice] || position > readUpTo[voice])
+            readUpTo[voice] = position;
+        lastSamples[voice] = sample;
+        lastPositions[voice] = position;
+        if (sample == null) return;
+
+        int end = (int) Math.min(sample.frames, (long) position + AHEAD_FRAMES);
+        int from = readUpTo[voice] * MixerEngine.CHANNELS, to = end * MixerEngine.CHANNELS;
+        for (int value = from; value < to; value += PAGE_VALUES) sink += sample.stream.get(value);
+        readUpTo[voice] = Math.max(readUpTo[voice], end);
+    }
+}
@@ -23,20 +23,16 @@ import javax.sound.sampled.DataLine;
 import javax.sound.sampled.LineUnavailableException;
 import javax.sound.sampled.LineEvent;
 import javax.sound.sampled.Clip;
-import javax.imageio.ImageIO;
 import javax.swing.JTextField;
 import javax.swing.JButton;
 import javax.swing.JLabel;
-import javax.swing.ImageIcon;
 import javax.swing.Icon;
 import java.awt.Dimension;
-import java.awt.Image;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.Arrays;
-import java.util.Objects;
 import java.util.ResourceBundle;
 
 import org.apache.commons.io.FileUtils;
@@ -100,20 +96,10 @@ public class RecorderDialog{
         filenameT.setText(newName);
         dialog.mainPanel.add(filenameT);
 
-        // Initializing the icons that will be used in buttons.
-        try {
-            recordIcon = new ImageIcon(ImageIO.read(Objects.requireNonNull(getClass().getResource("/Artworks/record.png")))
-                    .getScaledInstance(15, 15, Image.SCALE_SMOOTH));
-
-            stopIcon = new ImageIcon(ImageIO.read(Objects.requireNonNull(getClass().getResource("/Artworks/stop.png")))
-                    .getScaledInstance(15, 15, Image.SCALE_SMOOTH));
-
-            playIcon = new ImageIcon(ImageIO.read(Objects.requireNonNull(getClass().getResource("/Artworks/play.png")))
-                    .getScaledInstance(15, 15, Image.SCALE_SMOOTH));
-
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+        // Initializing the icons that will be used in buttons. They are shared with the other dialogs.
+        recordIcon = Artwork.icon("record.png", 15, 15);
+        stopIcon = Artwork.icon("stop.png", 15, 15);
+        playIcon = Artwork.icon("play.png", 15, 15);
 
         // Initializing the record button
         recordStop = new JButton(recordIcon);
@@ -141,9 +141,8 @@ public class RepoMgr extends Manager {
 
 
         if (FileOperations.filename != null) { // If user selects something
-            refresh(""); // Refreshes the DLM so the newly selected dir is also visible
-            // Select the newly added file programmatically
-            fileList.setSelectedValue(FileOperations.filename, true);
+            // Refreshes the DLM so the newly selected dir is also visible, and selects it once it's listed.
+            refresh("", FileOperations.filename);
             //dialog.setVisible(true);
             use.setEnabled(true);
             remove.setEnabled(true);
@@ -181,7 +180,7 @@ public class RepoMgr extends Manager {
             final String newRepoName = name.getText();
             if(StringUtils.isEmpty(newRepoName)) {
                 selectedFileName.setText(bundleRepo.getString("REPOMGR_CANCELLED"));
-            } else if (DLM.contains(newRepoName)){
+            } else if (DLM.contains(newRepoName) || new File(fileDir, newRepoName).exists()){
                 selectedFileName.setText(bundleRepo.getString("REPOMGR_EXISTS"));
             } else {
                 Path path = Paths.get(System.getProperty("user.home") + "/LunchPad Repositories/" + newRepoName + "/");
@@ -190,11 +189,10 @@ public class RepoMgr extends Manager {
                 } catch (Exception exception) {
                     throw new RuntimeException(exception); // Gives the exception error in detail
                 }
-                refresh("");
-                fileList.setSelectedValue(newRepoName, true);
+                refresh("", newRepoName);
                 use.setEnabled(true);
                 remove.setEnabled(true);
-                selectedFileName.setText(fileList.getSelectedValue() + bundleRepo.getString("REPOMGR_SELECT"));
+                selectedFileName.setText(newRepoName + bundleRepo.getString("REPOMGR_SELECT"));
             }
         }
     }
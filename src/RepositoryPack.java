@@ -0,0 +1,417 @@
+/*
+ * Lunchpad - A Launchpad/Soundboard application.
+ * This file is part of Lunchpad.
+ *
+ * Lunchpad is free software: you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * Lunchpad is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Lunchpad. If not, see
+ * <https://www.gnu.org/licenses/>.
+ * */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+/**
+ * A compiled repository: every sound of a repository already decoded into the format of the MixerEngine,
+ * together with the key mapping of both channels, in a single file that is opened by memory-mapping it.
+ * <pre></pre>
+ * The pack is written by {@code compile(...)} into the repository as {@code repository.lpk}. Opening it only
+ * reads its index, and the sounds are then mapped one by one, so a repository opens without listing the folder,
+ * parsing the mapping or decoding anything. Every sound remembers the size and the modification time of its
+ * source file, so a sound whose file has changed since the compilation is decoded from the file instead.
+ * <pre></pre>
+ * Layout of the file, every number little-endian:
+ * <pre>
+ *      Header (64 bytes)  magic "LPK1", version, sample rate, channels, keys, channels of a key, sound count,
+ *                         CRC-32 of the index, index offset (long), index length (long), 16 bytes reserved
+ *      Index              for every sound: name, source length (long), source modification time (long),
+ *                         data offset (long), frames (int), CRC-32 of the PCM data (int)
+ *                         then for every channel of every key: the name of its sound, empty for none
+ *      Data               the PCM data of every sound, each starting at a multiple of 4096 bytes
+ * </pre>
+ * Names are written as their UTF-8 length (unsigned short) followed by their bytes.
+ * <pre>Ex:
+ *      {@code
+ *      RepositoryPack.compile(my_repository, new File(my_repository, RepositoryPack.FILE_NAME), 8, System.out);
+ *      RepositoryPack pack = RepositoryPack.open(new File(my_repository, RepositoryPack.FILE_NAME));
+ *      String[][] names = pack.getMapping();
+ *      }
+ * </pre>
+ * @since 1.3
+ */
+public final class RepositoryPack {
+    public static final String FILE_NAME = "repository.lpk";
+    private static final int MAGIC = 0x314B504C; // "LPK1" read as a little-endian int
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 64;
+    private static final int ALIGNMENT = 4096;   // Sounds start on a page, so mapping them never shares a page
+
+    public final File file;
+    private final HashMap<String, Entry> entries = new HashMap<>();
+    private final String[][] mapping;
+
+    private RepositoryPack(File file, String[][] mapping) {
+        this.file = file;
+        this.mapping = mapping;
+    }
+
+    /**
+     * Opens a pack by reading its header and its index. The PCM data isn't read.
+     * @param file The pack.
+     * @return The opened pack.
+     * @throws IOException If the file cannot be read, or if it isn't a valid pack for this version of Lunchpad.
+     * @since 1.3
+     */
+    public static RepositoryPack open(File file) throws IOException {
+        try (RandomAccessFile input = new RandomAccessFile(file, "r"); FileChannel channel = input.getChannel()) {
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt() != MAGIC) throw new IOException(file + " is not a Lunchpad pack.");
+            if (header.getInt() != VERSION) throw new IOException(file + " was compiled by another version of Lunchpad.");
+            if (header.getInt() != (int) MixerEngine.SAMPLE_RATE || header.getInt() != MixerEngine.CHANNELS)
+                throw new IOException(file + " doesn't have the format of the engine.");
+            int keys = header.getInt(), channels = header.getInt(), sounds = header.getInt(), indexCrc = header.getInt();
+            long indexOffset = header.getLong(), indexLength = header.getLong();
+            if (indexLength > Integer.MAX_VALUE || indexOffset + indexLength > channel.size())
+                throw new IOException(file + " is truncated.");
+
+            ByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, indexOffset, indexLength)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            if (crc(index.duplicate()) != indexCrc) throw new IOException(file + " is damaged.");
+
+            RepositoryPack pack = new RepositoryPack(file, new String[keys][channels]);
+            for (int i = 0; i < sounds; i++) {
+                Entry entry = new Entry(readName(index), index.getLong(), index.getLong(), index.getLong(),
+                        index.getInt(), index.getInt());
+                if (entry.offset + entry.frames * (long) MixerEngine.FORMAT.getFrameSize() > channel.size())
+                    throw new IOException(file + " is truncated.");
+                pack.entries.put(entry.name, entry);
+            }
+            for (int key = 0; key < keys; key++)
+                for (int c = 0; c < channels; c++) {
+                    String name = readName(index);
+                    pack.mapping[key][c] = name.isEmpty() ? "None" : name;
+                }
+            return pack;
+        }
+    }
+
+    /**
+     * Opens the pack of a repository, if it has one.
+     * @param repository The folder of the repository.
+     * @return The pack, or null if the repository has no pack or if its pack cannot be used.
+     * @since 1.3
+     */
+    public static RepositoryPack openIfPresent(File repository) {
+        File file = new File(repository, FILE_NAME);
+        if (!file.isFile()) return null;
+        try {
+            return open(file);
+        } catch (IOException e) {
+            System.out.println("Ignoring the pack: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return The key mapping stored in the pack, indexed as [key][channel]. "None" for keys without a sound.
+     * @since 1.3
+     */
+    public String[][] getMapping() {
+        String[][] copy = new String[mapping.length][];
+        for (int i = 0; i < mapping.length; i++) copy[i] = mapping[i].clone();
+        return copy;
+    }
+
+    /**
+     * Finds the compiled sound of the given file, if the file hasn't changed since the pack was compiled.
+     * @param name Filename of the sound.
+     * @param length Current size of the file.
+     * @param modified Current modification time of the file.
+     * @return The entry of the sound, or null if the pack doesn't have it or if it is out of date.
+     * @since 1.3
+     */
+    public Entry find(String name, long length, long modified) {
+        Entry entry = entries.get(name);
+        return entry != null && entry.length == length && entry.modified == modified ? entry : null;
+    }
+
+    /**
+     * Maps the PCM data of the sound. Only its head is read right away, see {@code Sample.mapped(...)}.
+     * @param entry An entry of this pack.
+     * @return The sample.
+     * @throws IOException If the pack cannot be read.
+     * @since 1.3
+     */
+    public Sample load(Entry entry) throws IOException {
+        try (RandomAccessFile input = new RandomAccessFile(file, "r"); FileChannel channel = input.getChannel()) {
+            ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, entry.offset,
+                    entry.frames * (long) MixerEngine.FORMAT.getFrameSize()).order(ByteOrder.LITTLE_ENDIAN);
+            return Sample.mapped(entry.name, data.asShortBuffer());
+        }
+    }
+
+    /**
+     * Compares the PCM data of every sound with its checksum, in parallel.
+     * @param threads Number of sounds checked at the same time.
+     * @param log Where the damaged sounds are reported. Can be null.
+     * @return Number of damaged sounds.
+     * @throws IOException If the pack cannot be read.
+     * @since 1.3
+     */
+    public int verify(int threads, PrintStream log) throws IOException {
+        ExecutorService workers = Executors.newFixedThreadPool(Math.max(1, threads));
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (Entry entry : entries.values()) results.add(workers.submit(() -> {
+                try (RandomAccessFile input = new RandomAccessFile(file, "r"); FileChannel channel = input.getChannel()) {
+                    boolean intact = crc(channel.map(FileChannel.MapMode.READ_ONLY, entry.offset,
+                            entry.frames * (long) MixerEngine.FORMAT.getFrameSize())) == entry.crc;
+                    if (!intact && log != null) log.println("Damaged: " + entry.name);
+                    return intact;
+                }
+            }));
+            int damaged = 0;
+            for (Future<Boolean> result : results) if (!get(result)) damaged++;
+            return damaged;
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    /** @return Number of sounds in the pack. */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Compiles every .wav file of the repository and its key mapping into a pack. The sounds are decoded in
+     * parallel, each into a temporary file, and the pack is written next to the target and renamed into place
+     * at the end, so a pack that is in use is never half-written.
+     * <pre></pre>
+     * A sound that cannot be decoded is left out of the pack and reported, and the other sounds are compiled.
+     * Like every sound that isn't in the pack, it is opened from its file when the repository is loaded.
+     * @param repository The folder of the repository.
+     * @param target Where the pack is written, usually {@code repository.lpk} in the repository.
+     * @param threads Number of sounds decoded at the same time.
+     * @param log Where the progress is reported. Can be null.
+     * @return The names of the sounds that were left out because they cannot be decoded.
+     * @throws IOException If the repository or the pack cannot be read or written.
+     * @since 1.3
+     */
+    public static List<String> compile(File repository, File target, int threads, PrintStream log) throws IOException {
+        List<String> names = Manager.listItems(repository, ".wav");
+        // The mapping may be open in the window, a second store over it must not compact its journal away.
+        String[][] mapping = KeyMappingStore.read(repository, null);
+
+        ExecutorService workers = Executors.newFixedThreadPool(Math.max(1, threads));
+        List<Future<Compiled>> results = new ArrayList<>();
+        for (String name : names) results.add(workers.submit(() -> Compiled.decode(new File(repository, name), log)));
+        workers.shutdown();
+
+        List<Compiled> sounds = new ArrayList<>();
+        List<String> skipped = new ArrayList<>();
+        File temporary = new File(target.getPath() + ".tmp");
+        try {
+            for (int i = 0; i < results.size(); i++) {
+                try {
+                    sounds.add(get(results.get(i)));
+                } catch (java.io.InterruptedIOException e) {
+                    throw e;
+                } catch (IOException e) { // A broken sound shouldn't keep the others out of the pack.
+                    skipped.add(names.get(i));
+                    if (log != null) log.println("Skipped " + names.get(i) + ": " + e.getMessage());
+                }
+            }
+            write(temporary, sounds, mapping);
+            Files.move(temporary.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            if (log != null) log.println("Compiled " + sounds.size() + " sounds into " + target);
+            return skipped;
+        } finally {
+            workers.shutdownNow();
+            for (Compiled sound : sounds) sound.pcm.delete();
+            temporary.delete();
+        }
+    }
+
+    // Writes the header, the index, and the PCM data of every sound after it.
+    private static void write(File target, List<Compiled> sounds, String[][] mapping) throws IOException {
+        ByteBuffer index = ByteBuffer.allocate(indexLength(sounds, mapping)).order(ByteOrder.LITTLE_ENDIAN);
+        long offset = align(HEADER_BYTES + index.capacity());
+        for (Compiled sound : sounds) {
+            writeName(index, sound.name);
+            index.putLong(sound.length).putLong(sound.modified).putLong(offset).putInt(sound.frames).putInt(sound.crc);
+            offset = align(offset + sound.pcm.length());
+        }
+        int keys = mapping == null ? KeyMappingFile.KEYS : mapping.length;
+        for (int key = 0; key < keys; key++)
+            for (int c = 0; c < KeyMappingFile.CHANNELS; c++)
+                writeName(index, mapping == null || mapping[key][c].equals("None") ? "" : mapping[key][c]);
+        index.flip();
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt((int) MixerEngine.SAMPLE_RATE).putInt(MixerEngine.CHANNELS)
+                .putInt(keys).putInt(KeyMappingFile.CHANNELS).putInt(sounds.size()).putInt(crc(index.duplicate()))
+                .putLong(HEADER_BYTES).putLong(index.limit());
+        header.clear();
+
+        try (RandomAccessFile output = new RandomAccessFile(target, "rw"); FileChannel channel = output.getChannel()) {
+            channel.truncate(0);
+            writeFully(channel, header, 0);
+            writeFully(channel, index, HEADER_BYTES);
+            long position = align(HEADER_BYTES + index.limit());
+            for (Compiled sound : sounds) {
+                try (RandomAccessFile input = new RandomAccessFile(sound.pcm, "r"); FileChannel pcm = input.getChannel()) {
+                    long copied = 0;
+                    while (copied < pcm.size()) copied += pcm.transferTo(copied, pcm.size() - copied, channel.position(position + copied));
+                }
+                position = align(position + sound.pcm.length());
+            }
+            // Pads the last sound to its page, so that every entry is inside the file, even an empty last sound.
+            if (channel.size() < position) writeFully(channel, ByteBuffer.allocate(1), position - 1);
+            channel.force(true);
+        }
+    }
+
+    private static int indexLength(List<Compiled> sounds, String[][] mapping) {
+        int length = 0;
+        for (Compiled sound : sounds) length += 2 + sound.name.getBytes(StandardCharsets.UTF_8).length + 8 + 8 + 8 + 4 + 4;
+        int keys = mapping == null ? KeyMappingFile.KEYS : mapping.length;
+        for (int key = 0; key < keys; key++)
+            for (int c = 0; c < KeyMappingFile.CHANNELS; c++)
+                length += 2 + (mapping == null ? 0 : mapping[key][c].getBytes(StandardCharsets.UTF_8).length);
+        return length;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) position += channel.write(buffer, position);
+    }
+
+    private static long align(long position) {
+        return (position + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    private static void writeName(ByteBuffer buffer, String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        buffer.putShort((short) bytes.length).put(bytes);
+    }
+
+    private static String readName(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int crc(ByteBuffer buffer) {
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[64 * 1024];
+        while (buffer.hasRemaining()) {
+            int length = Math.min(chunk.length, buffer.remaining());
+            buffer.get(chunk, 0, length);
+            crc.update(chunk, 0, length);
+        }
+        return (int) crc.getValue();
+    }
+
+    // Waits for the result of a worker, passing its failure on as an IOException.
+    private static <T> T get(Future<T> result) throws IOException {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            throw new java.io.InterruptedIOException();
+        } catch (java.util.concurrent.ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * A sound of the pack and the state of its source file when it was compiled.
+     * @since 1.3
+     */
+    public static final class Entry {
+        public final String name;
+        final long length, modified, offset;
+        final int frames, crc;
+
+        Entry(String name, long length, long modified, long offset, int frames, int crc) {
+            this.name = name;
+            this.length = length;
+            this.modified = modified;
+            this.offset = offset;
+            this.frames = frames;
+            this.crc = crc;
+        }
+
+        /** @return The memory that the sample of the entry keeps resident once it is loaded. */
+        long residentBytes() {
+            return Math.min(frames, Sample.HEAD_FRAMES) * (long) MixerEngine.FORMAT.getFrameSize();
+        }
+    }
+
+    // A sound decoded into a temporary file, waiting to be copied into the pack.
+    private static final class Compiled {
+        final String name;
+        final long length, modified;
+        final File pcm;
+        int frames, crc;
+
+        private Compiled(File source, File pcm) {
+            name = source.getName();
+            length = source.length();
+            modified = source.lastModified();
+            this.pcm = pcm;
+        }
+
+        static Compiled decode(File source, PrintStream log) throws Exception {
+            Compiled compiled = new Compiled(source, File.createTempFile("lunchpad-", ".pcm"));
+            CRC32 crc = new CRC32();
+            try (SampleDecoder decoder = new SampleDecoder(source);
+                 RandomAccessFile output = new RandomAccessFile(compiled.pcm, "rw");
+                 FileChannel channel = output.getChannel()) {
+                short[] chunk = new short[32 * 1024];
+                ByteBuffer bytes = ByteBuffer.allocate(chunk.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+                int frames;
+                long total = 0;
+                while ((frames = decoder.read(chunk)) != -1) {
+                    bytes.clear();
+                    bytes.asShortBuffer().put(chunk, 0, frames * MixerEngine.CHANNELS);
+                    bytes.limit(frames * MixerEngine.FORMAT.getFrameSize());
+                    crc.update(bytes.array(), 0, bytes.limit());
+                    while (bytes.hasRemaining()) channel.write(bytes);
+                    total += frames;
+                }
+                if (total > Integer.MAX_VALUE / MixerEngine.CHANNELS) throw new IOException(source + " is too long.");
+                compiled.frames = (int) total;
+                compiled.crc = (int) crc.getValue();
+            } catch (Exception e) {
+                compiled.pcm.delete();
+                throw e instanceof IOException ? e : new IOException(source.getName() + ": " + e.getMessage(), e);
+            }
+            if (log != null) log.println("Decoded " + compiled.name);
+            return compiled;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Lunchpad - A Launchpad/Soundboard application.
+ * This file is part of Lunchpad.
+ *
+ * Lunchpad is free software: you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * Lunchpad is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Lunchpad. If not, see
+ * <https://www.gnu.org/licenses/>.
+ * */
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches a directory in the background and reports the files that are created, modified or deleted in it.
+ * <pre></pre>
+ * The events are debounced: the watcher waits until the directory has been quiet for a moment and reports every
+ * file that changed meanwhile at once, so an editor that saves a file in several steps, or a DAW that exports
+ * a whole folder, causes a single report. A directory that keeps changing is still reported at least once
+ * a second.
+ * <pre></pre>
+ * The listener is called from the watcher thread, so it should pass the work to the event dispatch thread to
+ * update the GUI. Call {@code close()} when the directory doesn't need to be watched anymore.
+ * <pre>Ex:
+ *      {@code
+ *      RepositoryWatcher watcher = RepositoryWatcher.watch(my_repository, names -> System.out.println(names));
+ *      // ...
+ *      watcher.close();
+ *      }
+ * </pre>
+ * On platforms without native file notifications, like macOS, the JDK polls the directory instead, which can
+ * take a few seconds to notice a change.
+ * @since 1.3
+ */
+public final class RepositoryWatcher {
+    private static final long QUIET_MS = 200;      // How long the directory has to be quiet before a report
+    private static final long MAX_DELAY_MS = 1000; // The longest time a change waits for its report
+
+    private final WatchService service;
+    private final Listener listener;
+    private volatile boolean closed;
+
+    private RepositoryWatcher(WatchService service, Listener listener) {
+        this.service = service;
+        this.listener = listener;
+    }
+
+    /**
+     * Starts watching the given directory. The subdirectories are not watched.
+     * @param directory The directory to be watched.
+     * @param listener Told about the changed files.
+     * @return The watcher, which keeps running until it's closed.
+     * @throws IOException If the directory cannot be watched.
+     * @since 1.3
+     */
+    public static RepositoryWatcher watch(File directory, Listener listener) throws IOException {
+        WatchService service = FileSystems.getDefault().newWatchService();
+        try {
+            directory.toPath().register(service, new WatchEvent.Kind<?>[]{
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE}, sensitivity());
+        } catch (IOException | RuntimeException e) {
+            service.close();
+            throw e;
+        }
+        RepositoryWatcher watcher = new RepositoryWatcher(service, listener);
+        Thread thread = new Thread(watcher::run, "Lunchpad Repository Watcher");
+        thread.setDaemon(true);
+        thread.start();
+        return watcher;
+    }
+
+    /**
+     * Stops watching the directory. The changes that are not reported yet are dropped.
+     * @since 1.3
+     */
+    public void close() {
+        closed = true;
+        try { service.close(); } // Wakes up the watcher thread.
+        catch (IOException e) { e.printStackTrace(); }
+    }
+
+    private void run() {
+        try {
+            while (!closed) {
+                HashSet<String> names = new HashSet<>();
+                boolean overflow = collect(service.take(), names);
+                // Collects the following events until the directory is quiet, or until the report is overdue.
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_DELAY_MS);
+                while (true) {
+                    long left = Math.min(QUIET_MS, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+                    if (left <= 0) break;
+                    WatchKey key = service.poll(left, TimeUnit.MILLISECONDS);
+                    if (key == null) break;
+                    overflow |= collect(key, names);
+                }
+                if (closed) break;
+                if (overflow) listener.filesChanged(null);
+                else if (!names.isEmpty()) listener.filesChanged(Collections.unmodifiableSet(names));
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // The watcher is closed.
+        }
+    }
+
+    // Adds the names of the changed files to the set. Returns true if some events were lost.
+    private static boolean collect(WatchKey key, Set<String> names) {
+        boolean overflow = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) overflow = true;
+            else names.add(((Path) event.context()).getFileName().toString());
+        }
+        key.reset();
+        return overflow;
+    }
+
+    // Asks the polling implementation of the JDK, used on macOS, to check the directory as often as it can.
+    // The other implementations ignore it. The modifier isn't part of the standard API, so it's looked up by name.
+    private static WatchEvent.Modifier[] sensitivity() {
+        try {
+            Object high = Class.forName("com.sun.nio.file.SensitivityWatchEventModifier").getField("HIGH").get(null);
+            return new WatchEvent.Modifier[]{(WatchEvent.Modifier) high};
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            return new WatchEvent.Modifier[0];
+        }
+    }
+
+    /**
+     * Receives the changes of the watched directory.
+     * @since 1.3
+     */
+    public interface Listener {
+        /**
+         * Called from the watcher thread after the directory has changed.
+         * @param names The names of the files that were created, modified or deleted. null if too many changes
+         *              happened at once to tell them apart, in which case any file may have changed.
+         */
+        void filesChanged(Set<String> names);
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Lunchpad - A Launchpad/Soundboard application.
+ * This file is part of Lunchpad.
+ *
+ * Lunchpad is free software: you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * Lunchpad is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Lunchpad. If not, see
+ * <https://www.gnu.org/licenses/>.
+ * */
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A band-limited sample rate converter, which interpolates with a Kaiser-windowed sinc.
+ * <pre></pre>
+ * The input is given in chunks with {@code write(...)}, and the output is taken with {@code read(...)} as soon as
+ * enough input has arrived, so a whole file never has to be in memory as floats. Only the input that the filter
+ * still needs is kept.
+ * <pre></pre>
+ * The filter has 32 zero crossings on each side. When the rate is lowered, its cutoff follows the new Nyquist
+ * frequency, so the frequencies that don't fit in the output rate are filtered out instead of folding back as
+ * aliases.
+ * <pre></pre>
+ * Between the usual rates (22.05, 44.1, 48, 96 kHz...) the output frames fall on a small number of positions
+ * between two input frames, so the filter is computed once for each of these phases and every output frame is
+ * a plain dot product. The phases are shared by every Resampler with the same rates. For other rates, the windowed
+ * sinc is read from a table and interpolated linearly between its points.
+ * <pre>Ex:
+ *      {@code
+ *      Resampler resampler = new Resampler(2, 48000, 44100);
+ *      resampler.write(my_input, my_input_frames);
+ *      int frames = resampler.read(my_output, my_output[0].length, false);
+ *      }
+ * </pre>
+ * @since 1.3
+ */
+final class Resampler {
+    private static final int ZERO_CROSSINGS = 32;  // On each side of the filter
+    private static final int RESOLUTION = 512;     // Points of the table between two zero crossings
+    private static final double KAISER_BETA = 9.0; // About 90 dB of stopband attenuation
+    private static final double ROLLOFF = 0.95;    // Cutoff relative to the Nyquist frequency, leaves room for the transition band
+    private static final int MAX_PHASES = 2048;   // Above this, the filter is interpolated instead of precomputed
+    private static final float[] TABLE = createTable();
+    private static final Map<String, float[][]> PHASES = new ConcurrentHashMap<>(); // By input and output rate
+
+    private final int channels;
+    private final double step;       // Input frames per output frame
+    private final double cutoff;     // Cutoff of the filter relative to the input Nyquist frequency
+    private final double halfWidth;  // Half the length of the filter, in input frames
+    private final boolean bypass;    // The rates are equal, so the input is only copied
+    private final float[][] phases;  // Precomputed filter of every phase, [phase][tap], or null
+    private final long up, down;     // Output frame n falls on input position n * down / up, for the phases
+    private final int firstTap;      // Offset of the first tap from the input frame before the output position
+    private float[][] input;         // Buffered input, by channel
+    private int buffered;            // Frames in input
+    private long inputStart;         // Index of the first buffered frame in the whole input
+    private long outputIndex;        // Index of the next output frame in the whole output
+
+    /**
+     * @param channels Number of channels of the input and the output.
+     * @param inputRate Sample rate of the input.
+     * @param outputRate Sample rate of the output.
+     * @since 1.3
+     */
+    Resampler(int channels, float inputRate, float outputRate) {
+        this.channels = channels;
+        step = inputRate / (double) outputRate;
+        cutoff = Math.min(1, outputRate / (double) inputRate) * ROLLOFF;
+        halfWidth = ZERO_CROSSINGS / cutoff;
+        bypass = inputRate == outputRate;
+        input = new float[channels][4096];
+
+        long gcd = inputRate == (long) inputRate && outputRate == (long) outputRate
+                ? gcd((long) inputRate, (long) outputRate) : 0;
+        if (!bypass && gcd > 0 && outputRate / gcd <= MAX_PHASES) {
+            up = (long) outputRate / gcd;
+            down = (long) inputRate / gcd;
+            firstTap = -(int) Math.floor(halfWidth);
+            phases = PHASES.computeIfAbsent(inputRate + ">" + outputRate, key -> createPhases());
+        } else {
+            up = down = 1;
+            firstTap = 0;
+            phases = null;
+        }
+    }
+
+    /**
+     * Adds input frames.
+     * @param frames The frames by channel, as [channel][frame].
+     * @param count Number of frames to be taken from the arrays.
+     * @since 1.3
+     */
+    void write(float[][] frames, int count) {
+        if (buffered + count > input[0].length) {
+            for (int c = 0; c < channels; c++)
+                input[c] = Arrays.copyOf(input[c], Math.max(input[c].length * 2, buffered + count));
+        }
+        for (int c = 0; c < channels; c++) System.arraycopy(frames[c], 0, input[c], buffered, count);
+        buffered += count;
+    }
+
+    /**
+     * Takes as many output frames as the buffered input allows.
+     * @param out Where the frames are written, as [channel][frame].
+     * @param max Maximum number of frames to be written.
+     * @param ended Whether the input has ended. The input is then padded with silence for the last frames.
+     * @return Number of frames written to out. 0 once the input has ended and every frame has been taken.
+     * @since 1.3
+     */
+    int read(float[][] out, int max, boolean ended) {
+        long inputEnd = inputStart + buffered;
+        int count = 0;
+        while (count < max) {
+            double time = outputIndex * step; // Position of the output frame in the input
+            if (ended ? time >= inputEnd : time + halfWidth + 1 >= inputEnd) break;
+            if (bypass) {
+                int index = (int) (outputIndex - inputStart);
+                for (int c = 0; c < channels; c++) out[c][count] = input[c][index];
+            } else if (phases != null) {
+                convolve(out, count);
+            } else {
+                interpolate(time, out, count);
+            }
+            count++;
+            outputIndex++;
+        }
+        discard((long) Math.floor(outputIndex * step - halfWidth) - 1);
+        return count;
+    }
+
+    // Computes the current output frame with the precomputed filter of its phase.
+    private void convolve(float[][] out, int index) {
+        long position = outputIndex * down;
+        float[] taps = phases[(int) (position % up)];
+        long first = position / up + firstTap - inputStart; // Index of the first tap in input
+        int from = (int) Math.max(0, -first), to = (int) Math.min(taps.length, buffered - first);
+        for (int c = 0; c < channels; c++) {
+            float[] samples = input[c];
+            float sum = 0;
+            for (int j = from; j < to; j++) sum += samples[(int) first + j] * taps[j];
+            out[c][index] = sum;
+        }
+    }
+
+    // Computes a single output frame: the input around the time, weighted by the filter centred on the time.
+    private void interpolate(double time, float[][] out, int index) {
+        long first = Math.max(inputStart, (long) Math.ceil(time - halfWidth));
+        long last = Math.min(inputStart + buffered - 1, (long) Math.floor(time + halfWidth));
+        for (int c = 0; c < channels; c++) out[c][index] = 0;
+        for (long k = first; k <= last; k++) {
+            double position = Math.abs(time - k) * cutoff * RESOLUTION;
+            int point = (int) position;
+            if (point >= TABLE.length - 1) continue;
+            double weight = TABLE[point] + (TABLE[point + 1] - TABLE[point]) * (position - point);
+            int i = (int) (k - inputStart);
+            for (int c = 0; c < channels; c++) out[c][index] += (float) (input[c][i] * weight);
+        }
+        // The filter is stretched when the cutoff is lowered, so its gain is scaled back to 1.
+        for (int c = 0; c < channels; c++) out[c][index] *= (float) cutoff;
+    }
+
+    // Drops the buffered input before the given frame, which no output frame needs anymore.
+    private void discard(long before) {
+        int dropped = (int) Math.min(buffered, Math.max(0, before - inputStart));
+        if (dropped == 0) return;
+        for (int c = 0; c < channels; c++) System.arraycopy(input[c], dropped, input[c], 0, buffered - dropped);
+        buffered -= dropped;
+        inputStart += dropped;
+    }
+
+    // The filter of every phase: the weights of the input frames around an output frame that falls phase / up
+    // after an input frame. The weights already include the gain correction of the cutoff.
+    private float[][] createPhases() {
+        int taps = 2 * (int) Math.floor(halfWidth) + 2;
+        float[][] filters = new float[(int) up][taps];
+        double i0Beta = besselI0(KAISER_BETA);
+        for (int phase = 0; phase < up; phase++) {
+            double fraction = phase / (double) up;
+            for (int j = 0; j < taps; j++) {
+                double x = Math.abs(fraction - (firstTap + j)) * cutoff; // Distance in zero crossings
+                if (x >= ZERO_CROSSINGS) continue;
+                double sinc = x == 0 ? 1 : Math.sin(Math.PI * x) / (Math.PI * x);
+                double ratio = x / ZERO_CROSSINGS;
+                filters[phase][j] = (float) (cutoff * sinc * besselI0(KAISER_BETA * Math.sqrt(1 - ratio * ratio)) / i0Beta);
+            }
+        }
+        return filters;
+    }
+
+    private static long gcd(long a, long b) {
+        return b == 0 ? a : gcd(b, a % b);
+    }
+
+    // One side of the windowed sinc, from 0 to ZERO_CROSSINGS, with RESOLUTION points per zero crossing.
+    private static float[] createTable() {
+        float[] table = new float[ZERO_CROSSINGS * RESOLUTION + 2];
+        double i0Beta = besselI0(KAISER_BETA);
+        for (int i = 0; i < table.length; i++) {
+            double x = i / (double) RESOLUTION;
+            double sinc = i == 0 ? 1 : Math.sin(Math.PI * x) / (Math.PI * x);
+            double ratio = Math.min(1, x / ZERO_CROSSINGS);
+            table[i] = (float) (sinc * besselI0(KAISER_BETA * Math.sqrt(1 - ratio * ratio)) / i0Beta);
+        }
+        return table;
+    }
+
+    // Modified Bessel function of the first kind, order 0, used by the Kaiser window.
+    private static double besselI0(double x) {
+        double sum = 1, term = 1, quarterSquare = x * x / 4;
+        for (int k = 1; term > sum * 1e-12; k++) {
+            term *= quarterSquare / ((double) k * k);
+            sum += term;
+        }
+        return sum;
+    }
+}
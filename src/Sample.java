@@ -0,0 +1,244 @@
+/*
+ * Lunchpad - A Launchpad/Soundboard application.
+ * This file is part of Lunchpad.
+ *
+ * Lunchpad is free software: you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * Lunchpad is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Lunchpad. If not, see
+ * <https://www.gnu.org/licenses/>.
+ * */
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The class that holds one decoded sound in the format of the MixerEngine.
+ * <pre></pre>
+ * The PCM data is stored only once, no matter how many times the sound is playing at the same time.
+ * Every voice of the MixerEngine that plays this sample only keeps its own read position.
+ * <pre></pre>
+ * The samples are interleaved, 16-bit signed and have {@code MixerEngine.CHANNELS} channels. They are kept
+ * off-heap in a direct buffer, whose size is accounted in AudioMemory by the owner of the sample.
+ * <pre></pre>
+ * Sounds longer than {@code lunchpad.streamSeconds} (default: 30) are streamed instead. They are decoded once into
+ * a temporary file, which is memory-mapped, and only their first {@code lunchpad.streamHeadMs} (default: 500)
+ * stay in memory, so that they start as fast as the other sounds. The rest is read by the operating system as the
+ * sound plays, ahead of time thanks to the read-ahead thread of the MixerEngine. Only the head is accounted in
+ * AudioMemory, so a long backing track costs as much memory as half a second of audio.
+ * @since 1.3
+ */
+public class Sample {
+    static final int STREAM_FRAMES = (int) (Integer.getInteger("lunchpad.streamSeconds", 30) * MixerEngine.SAMPLE_RATE);
+    static final int HEAD_FRAMES = (int) (Integer.getInteger("lunchpad.streamHeadMs", 500) * MixerEngine.SAMPLE_RATE / 1000);
+
+    public final String name; // Filename of the sound, mostly used for debugging
+    final ShortBuffer pcm;    // Interleaved PCM data, left channel first. Only the head of a streamed sample
+    final int frames;         // Number of frames of the whole sound
+    final int headFrames;     // Frames in pcm, the same as frames unless the sample is streamed
+    final ShortBuffer stream; // The whole sound, mapped from spillFile. null unless the sample is streamed
+    final long bytes;         // Memory used by the PCM data
+    private final File spillFile; // The decoded sound of a streamed sample
+
+    // Voices of the MixerEngine that play this sample, in the order they were started.
+    // Only accessed by the render thread of the engine.
+    MixerEngine.Voice firstVoice, lastVoice;
+    int voiceCount;
+
+    public Sample(String name, ShortBuffer pcm, long bytes) {
+        this.name = name;
+        this.pcm = pcm;
+        this.frames = this.headFrames = pcm.limit() / MixerEngine.CHANNELS;
+        this.stream = null;
+        this.bytes = bytes;
+        this.spillFile = null;
+    }
+
+    // Creates a streamed sample, whose head is resident and whose whole sound is mapped from the spill file.
+    private Sample(String name, ShortBuffer head, ShortBuffer stream, File spillFile) {
+        this.name = name;
+        this.pcm = head;
+        this.headFrames = head.limit() / MixerEngine.CHANNELS;
+        this.stream = stream;
+        this.frames = stream.limit() / MixerEngine.CHANNELS;
+        this.bytes = head.capacity() * 2L;
+        this.spillFile = spillFile;
+    }
+
+    /**
+     * Creates a streamed sample from PCM data that is already mapped, for example from a RepositoryPack.
+     * The head is copied into memory, so the sample starts as fast as the others.
+     * @param name Filename of the sound.
+     * @param stream The whole sound in the format of the MixerEngine.
+     * @return The sample.
+     * @since 1.3
+     */
+    static Sample mapped(String name, ShortBuffer stream) {
+        int headValues = Math.min(stream.limit(), HEAD_FRAMES * MixerEngine.CHANNELS);
+        ShortBuffer head = ByteBuffer.allocateDirect(headValues * 2).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+        ShortBuffer start = stream.duplicate();
+        start.limit(headValues);
+        head.put(start).flip();
+        return new Sample(name, head, stream, null);
+    }
+
+    /**
+     * @return Whether the sample is streamed from disk instead of being kept in memory as a whole.
+     * @since 1.3
+     */
+    public boolean isStreamed() {
+        return stream != null;
+    }
+
+    /**
+     * Deletes the temporary file of a streamed sample once the sample isn't needed anymore. Voices that still play
+     * the sample keep working where the operating system allows it, otherwise the file is deleted when the
+     * application exits.
+     * @since 1.3
+     */
+    public void dispose() {
+        if (spillFile != null && !spillFile.delete()) spillFile.deleteOnExit();
+    }
+
+    /**
+     * Estimates the memory that the given file will use after it is decoded, only by reading its header.
+     * For the files that will be streamed, this is the memory of the head.
+     * @param file The audio file.
+     * @return The estimated size of the decoded sample in bytes.
+     * @throws IOException If the file cannot be read.
+     * @throws UnsupportedAudioFileException If the file is not a supported audio file.
+     * @since 1.3
+     */
+    public static long estimateBytes(File file) throws IOException, UnsupportedAudioFileException {
+        return estimateBytes(estimateFrames(file));
+    }
+
+    /**
+     * Estimates the memory that a sound will use after it is decoded, from its length, for example the one
+     * in its SoundIndex entry. For the sounds that will be streamed, this is the memory of the head.
+     * @param frames The number of frames of the sound at the sample rate of the engine.
+     * @return The estimated size of the decoded sample in bytes.
+     * @since 1.3
+     */
+    public static long estimateBytes(long frames) {
+        if (frames > STREAM_FRAMES) frames = HEAD_FRAMES; // Only the head of a streamed sample stays in memory.
+        return frames * MixerEngine.FORMAT.getFrameSize();
+    }
+
+    // Number of frames of the file once it is converted to the sample rate of the engine, read from its header.
+    private static long estimateFrames(File file) throws IOException, UnsupportedAudioFileException {
+        AudioFileFormat fileFormat = AudioSystem.getAudioFileFormat(file);
+        long frames = fileFormat.getFrameLength();
+        if (frames == AudioSystem.NOT_SPECIFIED) // Assume the worst: one byte per frame in the file.
+            frames = file.length();
+        return (long) Math.ceil(frames * (double) MixerEngine.SAMPLE_RATE / fileFormat.getFormat().getSampleRate());
+    }
+
+    /**
+     * Reads the given .wav file and converts it to the format of the MixerEngine with a SampleDecoder, so the
+     * engine never has to convert anything while playing. Long files are streamed, see the description of the class.
+     * @param file The audio file to be decoded.
+     * @return The decoded sample.
+     * @throws IOException If the file cannot be read.
+     * @throws UnsupportedAudioFileException If the file is not a supported audio file or cannot be converted.
+     * @since 1.3
+     */
+    public static Sample load(File file) throws IOException, UnsupportedAudioFileException {
+        return load(file, estimateFrames(file));
+    }
+
+    /**
+     * Decodes the given .wav file like {@code load(file)}, with a length that is already known, for example from
+     * its SoundIndex entry, so the header of the file isn't parsed one more time.
+     * @param file The audio file to be decoded.
+     * @param estimated The number of frames of the sound at the sample rate of the engine.
+     * @return The decoded sample.
+     * @throws IOException If the file cannot be read.
+     * @throws UnsupportedAudioFileException If the file is not a supported audio file or cannot be converted.
+     * @since 1.3
+     */
+    public static Sample load(File file, long estimated) throws IOException, UnsupportedAudioFileException {
+        try (SampleDecoder decoder = new SampleDecoder(file)) {
+            if (estimated > STREAM_FRAMES) return loadStreamed(file.getName(), decoder);
+
+            // The frame length in the header is not always right, so the file is decoded until it ends.
+            // The buffer starts at the estimated size, plus some room for the rounding of the sample rate.
+            // It only grows if the estimation was still too small.
+            ByteBuffer data = ByteBuffer.allocateDirect((int) (estimated * MixerEngine.FORMAT.getFrameSize()) + 4096)
+                    .order(ByteOrder.LITTLE_ENDIAN); // FORMAT is little-endian
+            short[] chunk = new short[32 * 1024];
+            int frames;
+            while ((frames = decoder.read(chunk)) != -1) {
+                int values = frames * MixerEngine.CHANNELS;
+                if (data.remaining() < values * 2) data = grow(data, values * 2);
+                data.asShortBuffer().put(chunk, 0, values);
+                data.position(data.position() + values * 2);
+            }
+            data.flip();
+
+            // Give back the unused part of the buffer if the estimation was much too large.
+            if (data.capacity() - data.limit() > 64 * 1024)
+                data = ByteBuffer.allocateDirect(data.limit()).order(ByteOrder.LITTLE_ENDIAN).put(data);
+
+            data.rewind();
+            return new Sample(file.getName(), data.asShortBuffer(), data.capacity());
+        }
+    }
+
+    // Decodes the whole sound into a temporary file and maps it, keeping a copy of the head in memory.
+    private static Sample loadStreamed(String name, SampleDecoder decoder) throws IOException {
+        File spillFile = File.createTempFile("lunchpad-", ".pcm");
+        spillFile.deleteOnExit();
+        ByteBuffer head = ByteBuffer.allocateDirect(HEAD_FRAMES * MixerEngine.FORMAT.getFrameSize())
+                .order(ByteOrder.LITTLE_ENDIAN);
+        boolean done = false;
+        try (RandomAccessFile spill = new RandomAccessFile(spillFile, "rw");
+             FileChannel channel = spill.getChannel()) {
+            ByteBuffer chunkBytes = ByteBuffer.allocate(32 * 1024 * 2).order(ByteOrder.LITTLE_ENDIAN);
+            short[] chunk = new short[32 * 1024];
+            int frames;
+            while ((frames = decoder.read(chunk)) != -1) {
+                int values = frames * MixerEngine.CHANNELS;
+                chunkBytes.clear();
+                chunkBytes.asShortBuffer().put(chunk, 0, values);
+                chunkBytes.limit(values * 2);
+                if (head.hasRemaining()) { // The head is copied as the file is written, so it isn't read again.
+                    ByteBuffer part = chunkBytes.duplicate();
+                    part.limit(Math.min(part.limit(), head.remaining()));
+                    head.put(part);
+                }
+                while (chunkBytes.hasRemaining()) channel.write(chunkBytes);
+            }
+            if (channel.size() > Integer.MAX_VALUE) throw new IOException(name + " is too long to be played.");
+
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            head.flip();
+            done = true;
+            return new Sample(name, head.asShortBuffer(), mapped.asShortBuffer(), spillFile);
+        } finally {
+            if (!done) spillFile.delete();
+        }
+    }
+
+    // Copies the content of the buffer into a new one that has room for at least the given amount of bytes more.
+    private static ByteBuffer grow(ByteBuffer data, int needed) {
+        ByteBuffer bigger = ByteBuffer.allocateDirect(Math.max(data.capacity() * 2, data.capacity() + needed))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        data.flip();
+        return bigger.put(data);
+    }
+}
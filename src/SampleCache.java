@@ -0,0 +1,347 @@
+/*
+ * Lunchpad - A Launchpad/Soundboard application.
+ * This file is part of Lunchpad.
+ *
+ * Lunchpad is free software: you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * Lunchpad is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Lunchpad. If not, see
+ * <https://www.gnu.org/licenses/>.
+ * */
+
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * The class that makes sure that every audio file is read and decoded only once.
+ * <pre></pre>
+ * The decoded samples are kept by the absolute path of their file together with the modification time
+ * and the size of the file at the moment it was decoded. As long as the file doesn't change on disk,
+ * {@code get(my_file)} returns the very same Sample, even after the SoundPlayer is cleared and
+ * the repository is loaded again.
+ * <pre></pre>
+ * Every sample reserves its memory from AudioMemory before it is decoded. If the budget is full, the samples
+ * that haven't been requested since the last {@code unpinAll()} are dropped, least recently used first.
+ * If that still isn't enough, the sample is rejected with an AudioMemory.BudgetExceededException.
+ * <pre></pre>
+ * If a RepositoryPack is set, the files of its repository that haven't changed since the pack was compiled
+ * are mapped from the pack instead of being decoded.
+ * <pre></pre>
+ * If a SoundIndex is set, the files of its repository are neither probed nor parsed again before they are decoded,
+ * their length is taken from the index. The index also gives the hash of their content, and a file whose content
+ * is the same as a cached sample gets that very sample, whatever its name and whichever repository the cached
+ * sample came from. Identical sounds are decoded and kept in memory only once. Like the keys that play the same
+ * file, the keys that play identical files share the voices of their sample.
+ * <pre></pre>
+ * If an AudioDiskCache is set, the sounds that were decoded before, even in a previous run of the application,
+ * are mapped from the disk cache, and every newly decoded sound is written into it.
+ * <pre></pre>
+ * The cache can be used from several threads at once. Different files are decoded in parallel, while a thread
+ * asking for a file that is already being decoded waits for that result.
+ * <pre>Ex:
+ *      {@code
+ *      Sample first = cache.get(my_file);
+ *      Sample second = cache.get(my_file); // No disk access, first == second
+ *      }
+ * </pre>
+ * @since 1.3
+ */
+public class SampleCache {
+    private final HashMap<String, Entry> entries = new HashMap<>();
+    private final HashSet<String> loading = new HashSet<>(); // Paths that are being decoded at the moment
+    private final HashMap<String, Sample> byHash = new HashMap<>(); // Cached samples by the hash of their content
+    private final IdentityHashMap<Sample, Integer> users = new IdentityHashMap<>(); // Entries that use every sample
+    private long generation; // Entries requested in the current generation are pinned
+    private long useCounter; // Increases at every request, used to find the least recently used entry
+    private RepositoryPack pack; // Compiled sounds of the current repository, can be null
+    private AudioDiskCache diskCache; // Sounds decoded in the previous runs, can be null
+    private SoundIndex index; // What is known about the sounds of the current repository, can be null
+
+    /**
+     * Returns the decoded sample of the given file, decoding it only if it isn't cached yet
+     * or if the file has changed since it was decoded.
+     * @param file The audio file.
+     * @return The decoded sample.
+     * @throws IOException If the file cannot be read.
+     * @throws UnsupportedAudioFileException If the file is not a supported audio file.
+     * @throws AudioMemory.BudgetExceededException If the decoded sample doesn't fit in the audio memory budget.
+     * @since 1.3
+     */
+    public Sample get(File file) throws IOException, UnsupportedAudioFileException, AudioMemory.BudgetExceededException {
+        String path = file.getAbsolutePath();
+        long modified, length;
+        RepositoryPack.Entry packed = null;
+        RepositoryPack source;
+        AudioDiskCache disk;
+        SoundIndex indexed = null;
+        synchronized (this) {
+            source = pack;
+            disk = diskCache;
+            // Another thread is decoding the same file, its result will be used instead of decoding it twice.
+            while (loading.contains(path)) {
+                try { wait(); }
+                catch (InterruptedException e) { throw new InterruptedIOException(path); }
+            }
+            modified = file.lastModified();
+            length = file.length();
+
+            Entry entry = entries.get(path);
+            if (entry != null && entry.modified == modified && entry.length == length) {
+                entry.generation = generation;
+                entry.lastUsed = useCounter++;
+                return entry.sample;
+            }
+            if (entry != null) drop(path); // The file has changed, the old sample is useless.
+            if (source != null && file.getAbsoluteFile().getParentFile().equals(source.file.getAbsoluteFile().getParentFile()))
+                packed = source.find(file.getName(), length, modified);
+            if (index != null && file.getAbsoluteFile().getParentFile().equals(index.directory)) indexed = index;
+            loading.add(path);
+        }
+
+        // Decoding happens outside the lock, so that several files can be decoded at the same time.
+        long estimated = 0;
+        Sample sample = null;
+        boolean shared = false; // Whether the sample of an identical file is used, nothing is reserved for it then
+        String hash = null;
+        try {
+            // Only an up-to-date entry is used. Indexing the file here would read it once more before decoding it.
+            SoundIndex.Entry info = indexed != null ? indexed.peek(file.getName()) : null;
+            if (info != null && (info.length != length || info.modified != modified)) info = null;
+            if (info != null && !info.isPlayable())
+                throw new UnsupportedAudioFileException(file.getName() + " cannot be played: " + info.status);
+            if (info != null) hash = info.hash;
+            synchronized (this) {
+                Sample twin = hash != null ? byHash.get(hash) : null;
+                if (twin != null) {
+                    add(path, twin, modified, length, hash);
+                    sample = twin;
+                    shared = true;
+                }
+            }
+            if (shared) return sample;
+
+            File cached = packed == null && disk != null ? disk.find(file, length, modified) : null;
+            if (packed != null) estimated = packed.residentBytes();
+            else if (cached != null) estimated = AudioDiskCache.residentBytes(cached);
+            else if (info != null) estimated = Sample.estimateBytes(info.engineFrames());
+            else estimated = Sample.estimateBytes(file);
+            synchronized (this) {
+                while (!AudioMemory.reserve(estimated)) {
+                    if (!evictOne()) {
+                        long needed = estimated;
+                        estimated = 0; // Nothing was reserved, so nothing should be released.
+                        throw new AudioMemory.BudgetExceededException(file.getName(), needed);
+                    }
+                }
+            }
+            if (packed != null) sample = source.load(packed);
+            else if (cached != null) sample = disk.load(cached, file.getName()); // null if it was just evicted
+            if (sample == null) {
+                sample = info != null ? Sample.load(file, info.engineFrames()) : Sample.load(file);
+                if (disk != null) disk.store(file, length, modified, sample);
+            }
+        } catch (OutOfMemoryError e) { // The budget is larger than the direct memory of the JVM.
+            throw new AudioMemory.BudgetExceededException(file.getName(), estimated);
+        } finally {
+            synchronized (this) {
+                loading.remove(path);
+                if (sample == null) {
+                    AudioMemory.release(estimated);
+                } else if (!shared) {
+                    AudioMemory.adjust(sample.bytes - estimated); // The estimation becomes the actual size.
+                    if (hash != null) byHash.putIfAbsent(hash, sample);
+                    add(path, sample, modified, length, hash);
+                }
+                notifyAll();
+            }
+        }
+        return sample;
+    }
+
+    /**
+     * Returns the cached sample of the given file without decoding anything, if the file hasn't changed since it was
+     * decoded. The sample is pinned, like by {@code get(...)}.
+     * @param file The audio file.
+     * @return The sample, or null if it isn't cached, if it's being decoded or if the file has changed.
+     * @since 1.3
+     */
+    public synchronized Sample getIfCached(File file) {
+        String path = file.getAbsolutePath();
+        Entry entry = loading.contains(path) ? null : entries.get(path);
+        if (entry == null || entry.modified != file.lastModified() || entry.length != file.length()) return null;
+        entry.generation = generation;
+        entry.lastUsed = useCounter++;
+        return entry.sample;
+    }
+
+    /**
+     * Sets the compiled pack of the repository that is being loaded. The samples that were already mapped from the
+     * previous pack stay valid, since every mapping stays open until its sample is dropped.
+     * @param pack The pack, or null to decode every file.
+     * @since 1.3
+     */
+    public synchronized void setPack(RepositoryPack pack) {
+        this.pack = pack;
+    }
+
+    /**
+     * Sets the index of the repository that is being loaded.
+     * @param index The index, or null to probe the header of every file that is decoded.
+     * @since 1.3
+     */
+    public synchronized void setIndex(SoundIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * Gives the cached samples that were decoded before their file was indexed the hash of their file, from the
+     * index of the repository, so that the identical sounds that are loaded from now on share them.
+     * Call it after the index has been updated.
+     * @since 1.3
+     */
+    public synchronized void adoptHashes() {
+        if (index == null) return;
+        for (Map.Entry<String, Entry> cached : entries.entrySet()) {
+            Entry entry = cached.getValue();
+            File file = new File(cached.getKey());
+            if (entry.hash != null || !index.directory.equals(file.getParentFile())) continue;
+            SoundIndex.Entry info = index.peek(file.getName());
+            if (info == null || !info.isPlayable() || info.length != entry.length || info.modified != entry.modified)
+                continue;
+            entry.hash = info.hash;
+            byHash.putIfAbsent(info.hash, entry.sample);
+        }
+    }
+
+    /**
+     * Sets the cache on disk where the decoded sounds are kept across restarts.
+     * @param diskCache The disk cache, or null to always decode the files that aren't cached in memory.
+     * @since 1.3
+     */
+    public synchronized void setDiskCache(AudioDiskCache diskCache) {
+        this.diskCache = diskCache;
+    }
+
+    /**
+     * Checks whether the given sample is the cached sample of the file and the file hasn't changed since it was
+     * decoded. Only the size and the modification time of the file are compared, the file isn't read.
+     * @param file The audio file.
+     * @param sample The sample that was decoded from the file.
+     * @return true if the sample is still up-to-date.
+     * @since 1.3
+     */
+    public synchronized boolean isCurrent(File file, Sample sample) {
+        Entry entry = entries.get(file.getAbsolutePath());
+        return entry != null && entry.sample == sample
+                && entry.modified == file.lastModified() && entry.length == file.length();
+    }
+
+    /**
+     * Drops the cached sample of the given file, if there is one.
+     * @param file The audio file.
+     * @since 1.3
+     */
+    public synchronized void remove(File file) {
+        drop(file.getAbsolutePath());
+    }
+
+    /**
+     * Makes every cached sample evictable until it is requested again. Call it before loading a repository,
+     * so that the samples of the previous one can make room for the new samples if the budget is full.
+     * @since 1.3
+     */
+    public synchronized void unpinAll() {
+        generation++;
+    }
+
+    /**
+     * Drops every cached sample that is neither in the given collection nor the sample of one of the given files,
+     * so that the sounds of the repositories that aren't used anymore don't stay in memory.
+     * @param used The samples that should stay in the cache.
+     * @param files The files whose samples should stay in the cache too.
+     * @since 1.3
+     */
+    public synchronized void retainAll(Collection<Sample> used, Collection<File> files) {
+        Map<Sample, Boolean> kept = new IdentityHashMap<>();
+        for (Sample sample : used) kept.put(sample, Boolean.TRUE);
+        HashSet<String> keptPaths = new HashSet<>();
+        for (File file : files) keptPaths.add(file.getAbsolutePath());
+        for (Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Entry> entry = it.next();
+            if (!kept.containsKey(entry.getValue().sample) && !keptPaths.contains(entry.getKey())) {
+                it.remove();
+                release(entry.getValue());
+            }
+        }
+    }
+
+    // Drops the least recently used entry that isn't pinned. Returns false if there is no such entry.
+    private boolean evictOne() {
+        String victim = null;
+        long oldest = Long.MAX_VALUE;
+        for (Map.Entry<String, Entry> candidate : entries.entrySet()) {
+            Entry entry = candidate.getValue();
+            if (entry.generation != generation && entry.lastUsed < oldest) {
+                oldest = entry.lastUsed;
+                victim = candidate.getKey();
+            }
+        }
+        if (victim == null) return false;
+        drop(victim);
+        return true;
+    }
+
+    private void drop(String path) {
+        Entry entry = entries.remove(path);
+        if (entry != null) release(entry);
+    }
+
+    private void add(String path, Sample sample, long modified, long length, String hash) {
+        Entry entry = new Entry(sample, modified, length, hash);
+        entry.generation = generation;
+        entry.lastUsed = useCounter++;
+        entries.put(path, entry);
+        users.merge(sample, 1, Integer::sum);
+    }
+
+    // Gives the memory of the sample of a removed entry back, unless the sample is still used by another entry.
+    private void release(Entry entry) {
+        int count = users.get(entry.sample);
+        if (count > 1) {
+            users.put(entry.sample, count - 1);
+            return;
+        }
+        users.remove(entry.sample);
+        if (entry.hash != null && byHash.get(entry.hash) == entry.sample) byHash.remove(entry.hash);
+        AudioMemory.release(entry.sample.bytes);
+        entry.sample.dispose();
+    }
+
+    // A decoded sample together with the state of its file when it was decoded.
+    private static final class Entry {
+        final Sample sample;
+        final long modified, length;
+        String hash; // Hash of the content of the file, null if it isn't known yet
+        long generation, lastUsed;
+
+        Entry(Sample sample, long modified, long length, String hash) {
+            this.sample = sample;
+            this.modified = modified;
+            this.length = length;
+            this.hash = hash;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Lunchpad - A Launchpad/Soundboard application.
+ * This file is part of Lunchpad.
+ *
+ * Lunchpad is free software: you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * Lunchpad is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Lunchpad. If not, see
+ * <https://www.gnu.org/licenses/>.
+ * */
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Decodes an audio file into the format of the MixerEngine, chunk by chunk.
+ * <pre></pre>
+ * Every sample of the file is read as a float, whatever its encoding (8 to 32-bit integers, signed or unsigned,
+ * little or big-endian, 32 or 64-bit floats; anything else is first converted to 16-bit PCM by Java Sound).
+ * Mono files are played on both channels, files with more than two channels keep their front left and right
+ * channels. The sample rate is converted by a Resampler instead of the converter of Java Sound, which doesn't
+ * filter the aliases out. Finally, the floats are rounded to 16 bits with triangular dither, unless the file
+ * already was 16-bit or less at the rate of the engine, in which case the samples are copied exactly.
+ * <pre>Ex:
+ *      {@code
+ *      try (SampleDecoder decoder = new SampleDecoder(my_file)) {
+ *          short[] chunk = new short[4096 * MixerEngine.CHANNELS];
+ *          int frames;
+ *          while ((frames = decoder.read(chunk)) != -1) {
+ *              // Use the first frames * MixerEngine.CHANNELS values of chunk.
+ *          }
+ *      }
+ *      }
+ * </pre>
+ * @since 1.3
+ */
+final class SampleDecoder implements Closeable {
+    private static final int CHUNK_FRAMES = 4096;
+
+    private final AudioInputStream source;
+    private final AudioFormat format;  // Format of source, always one that can be read by decode()
+    private final int sampleBytes;     // Bytes of a single sample of a single channel
+    private final boolean exact;       // The samples fit in 16 bits without rounding, so they aren't dithered
+    private final Resampler resampler;
+    private final byte[] bytes;
+    private final float[][] decoded, resampled; // [channel][frame], in the channels of the engine
+    private boolean ended;
+    private int seed = 0x2545F491;     // State of the random numbers of the dither
+
+    /**
+     * Opens the file for decoding.
+     * @param file The audio file.
+     * @throws IOException If the file cannot be read.
+     * @throws UnsupportedAudioFileException If the file is not a supported audio file or cannot be converted.
+     * @since 1.3
+     */
+    SampleDecoder(File file) throws IOException, UnsupportedAudioFileException {
+        AudioInputStream stream = AudioSystem.getAudioInputStream(file);
+        AudioFormat original = stream.getFormat();
+        AudioFormat.Encoding encoding = original.getEncoding();
+        boolean readable = encoding.equals(AudioFormat.Encoding.PCM_SIGNED)
+                || encoding.equals(AudioFormat.Encoding.PCM_UNSIGNED)
+                || (encoding.equals(AudioFormat.Encoding.PCM_FLOAT) && (original.getSampleSizeInBits() == 32
+                                                                        || original.getSampleSizeInBits() == 64));
+        if (!readable) {
+            try {
+                stream = AudioSystem.getAudioInputStream(new AudioFormat(original.getSampleRate(), 16,
+                        original.getChannels(), true, false), stream);
+            } catch (IllegalArgumentException e) { // No converter for this encoding.
+                stream.close();
+                throw new UnsupportedAudioFileException(file.getName() + ": " + original);
+            }
+        }
+        source = stream;
+        format = stream.getFormat();
+        sampleBytes = format.getFrameSize() / format.getChannels();
+
+        exact = !format.getEncoding().equals(AudioFormat.Encoding.PCM_FLOAT) && format.getSampleSizeInBits() <= 16
+                && format.getSampleRate() == MixerEngine.SAMPLE_RATE;
+        resampler = new Resampler(MixerEngine.CHANNELS, format.getSampleRate(), MixerEngine.SAMPLE_RATE);
+        bytes = new byte[CHUNK_FRAMES * format.getFrameSize()];
+        decoded = new float[MixerEngine.CHANNELS][CHUNK_FRAMES];
+        resampled = new float[MixerEngine.CHANNELS][CHUNK_FRAMES];
+    }
+
+    /**
+     * Decodes the next frames of the file.
+     * @param out Where the frames are written, interleaved in the format of the MixerEngine.
+     * @return Number of frames written, or -1 if the file has ended.
+     * @throws IOException If the file cannot be read.
+     * @since 1.3
+     */
+    int read(short[] out) throws IOException {
+        int max = Math.min(CHUNK_FRAMES, out.length / MixerEngine.CHANNELS);
+        while (true) {
+            int frames = resampler.read(resampled, max, ended);
+            if (frames > 0) {
+                quantize(frames, out);
+                return frames;
+            }
+            if (ended) return -1;
+
+            int read = readFrames();
+            if (read == -1) ended = true;
+            else resampler.write(decoded, decode(read));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+
+    // Fills bytes with whole frames. Returns the number of bytes, or -1 at the end of the file.
+    private int readFrames() throws IOException {
+        int total = 0, read;
+        while (total < bytes.length && (read = source.read(bytes, total, bytes.length - total)) != -1) total += read;
+        total -= total % format.getFrameSize(); // A truncated last frame is dropped.
+        return total == 0 ? -1 : total;
+    }
+
+    // Converts the bytes into decoded, mapping the channels of the file to the channels of the engine.
+    private int decode(int length) {
+        int channels = format.getChannels(), frameSize = format.getFrameSize();
+        int frames = length / frameSize;
+        for (int f = 0; f < frames; f++) {
+            int offset = f * frameSize;
+            float left = sampleAt(offset);
+            float right = channels == 1 ? left : sampleAt(offset + sampleBytes);
+            decoded[0][f] = left;
+            decoded[1][f] = right;
+        }
+        return frames;
+    }
+
+    // The sample at the given position of bytes, between -1 and 1.
+    private float sampleAt(int offset) {
+        long bits = 0;
+        boolean bigEndian = format.isBigEndian();
+        for (int b = 0; b < sampleBytes; b++) {
+            int value = bytes[offset + (bigEndian ? b : sampleBytes - 1 - b)] & 0xFF;
+            bits = bits << 8 | value;
+        }
+        AudioFormat.Encoding encoding = format.getEncoding();
+        if (encoding.equals(AudioFormat.Encoding.PCM_FLOAT))
+            return sampleBytes == 4 ? Float.intBitsToFloat((int) bits) : (float) Double.longBitsToDouble(bits);
+
+        int width = sampleBytes * 8;
+        if (encoding.equals(AudioFormat.Encoding.PCM_UNSIGNED)) bits -= 1L << (width - 1);
+        else bits = bits << (64 - width) >> (64 - width); // Sign extension
+        return (float) (bits / (double) (1L << (width - 1)));
+    }
+
+    // Rounds the resampled frames to 16 bits into out, interleaved.
+    private void quantize(int frames, short[] out) {
+        for (int f = 0; f < frames; f++) {
+            for (int c = 0; c < MixerEngine.CHANNELS; c++) {
+                double value = resampled[c][f] * 32768.0;
+                // Triangular dither of one step spreads the rounding error into a flat noise instead of distortion.
+                if (!exact) value += nextRandom() - nextRandom();
+                out[f * MixerEngine.CHANNELS + c] =
+                        (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(value)));
+            }
+        }
+    }
+
+    // A uniform random number between 0 and 1, from a xorshift generator.
+    private double nextRandom() {
+        seed ^= seed << 13;
+        seed ^= seed >>> 17;
+        seed ^= seed << 5;
+        return (seed >>> 8) / (double) (1 << 24);
+    }
+}
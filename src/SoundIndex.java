@@ -0,0 +1,568 @@
+/*
+ * Lunchpad - A Launchpad/Soundboard application.
+ * This file is part of Lunchpad.
+ *
+ * Lunchpad is free software: you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * Lunchpad is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Lunchpad. If not, see
+ * <https://www.gnu.org/licenses/>.
+ * */
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * What is known about every sound of a repository without decoding it: its format, its duration, the hash of its
+ * content and its levels, and whether it can be played at all.
+ * <pre></pre>
+ * The index is kept next to the sounds, in soundindex.lpi, and an entry is only built again when the size or the
+ * modification time of its file changes. The entries are built by a parser of the RIFF chunks of the file, which
+ * reads the header and then the samples once, hashing them and measuring their levels on the way. The files that
+ * aren't plain PCM or float WAVE files are probed by Java Sound instead. A file that is damaged or in a format that
+ * cannot be decoded gets an entry too, which says so, so that the player doesn't even try to load it.
+ * <pre></pre>
+ * The index file is UTF-8 text. It starts with {@code LPI <version>}, and every other line is the CRC-32 of the
+ * rest of the line followed by:
+ * <pre>
+ *      &lt;size&gt; &lt;modified&gt; &lt;status&gt; &lt;encoding&gt; &lt;sample rate&gt; &lt;bits&gt; &lt;channels&gt; &lt;frames&gt; &lt;SHA-1&gt; &lt;peak&gt; &lt;RMS&gt; &lt;filename&gt;
+ * </pre>
+ * Lines that are damaged are ignored, their files are simply indexed again.
+ * <pre></pre>
+ * There is a single SoundIndex per repository, shared by everything that uses the repository.
+ * <pre>Ex:
+ *      {@code
+ *      SoundIndex index = SoundIndex.of(my_repository);
+ *      SoundIndex.Entry entry = index.get("hello.wav"); // Indexed now if the file is new or has changed
+ *      if (entry != null && entry.isPlayable()) System.out.println(entry.describe());
+ *      }
+ * </pre>
+ * @since 1.3
+ */
+public final class SoundIndex {
+    public static final String FILE_NAME = "soundindex.lpi";
+    private static final int VERSION = 1;
+    private static final int RIFF = 0x46464952, WAVE = 0x45564157, FMT = 0x20746D66, DATA = 0x61746164; // Little-endian
+    private static final ConcurrentHashMap<File, SoundIndex> indexes = new ConcurrentHashMap<>();
+    private static final ExecutorService indexers = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), r -> {
+                Thread indexer = new Thread(r, "Lunchpad Indexer");
+                indexer.setDaemon(true);
+                return indexer;
+            });
+
+    public final File directory;
+    private final File file;
+    private final HashMap<String, Entry> entries = new HashMap<>();
+    private final Object busy = new Object(); // Held while the index is updated or saved, one at a time
+    private final AtomicInteger updateRequests = new AtomicInteger(); // Calls of updateInBackground() not served yet
+    private boolean dirty;                    // Whether the entries have changed since they were saved
+
+    private SoundIndex(File directory) {
+        this.directory = directory;
+        file = new File(directory, FILE_NAME);
+        if (file.isFile()) {
+            try {
+                read();
+            } catch (IOException e) { // The index is built again.
+                System.out.println(file + " cannot be read: " + e.getMessage());
+                entries.clear();
+                dirty = true;
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the given repository, reading it from the repository the first time.
+     * @param repository The folder of the repository.
+     * @return The index. The entries of the files that have changed since it was saved are outdated until
+     * they are requested with {@code get(...)} or until {@code update()}.
+     * @since 1.3
+     */
+    public static SoundIndex of(File repository) {
+        return indexes.computeIfAbsent(repository.getAbsoluteFile(), SoundIndex::new);
+    }
+
+    /**
+     * Returns the entry of the given sound, indexing its file right away if it is new or has changed.
+     * Can be called from any thread.
+     * @param name Filename of the sound in the repository.
+     * @return The entry, or null if the file doesn't exist.
+     * @since 1.3
+     */
+    public Entry get(String name) {
+        File sound = new File(directory, name);
+        if (!sound.isFile()) {
+            synchronized (this) {
+                if (entries.remove(name) != null) dirty = true;
+            }
+            return null;
+        }
+        long length = sound.length(), modified = sound.lastModified();
+        synchronized (this) {
+            Entry entry = entries.get(name);
+            if (entry != null && entry.length == length && entry.modified == modified) return entry;
+        }
+        Entry entry = index(sound, name, length, modified); // Outside the lock, so other files can be indexed meanwhile.
+        synchronized (this) {
+            entries.put(name, entry);
+            dirty = true;
+        }
+        return entry;
+    }
+
+    /**
+     * Returns the entry of the given sound as it is, without touching the disk. Use it where the disk shouldn't
+     * be accessed, like while painting.
+     * @param name Filename of the sound in the repository.
+     * @return The entry, or null if the sound isn't indexed yet. It may be outdated.
+     * @since 1.3
+     */
+    public synchronized Entry peek(String name) {
+        return entries.get(name);
+    }
+
+    /**
+     * Brings the whole index up-to-date with the repository: the .wav files that are new or have changed are
+     * indexed, several at a time, and the entries of the files that are gone are dropped. Then the index is saved.
+     * @return The number of files that were indexed.
+     * @throws IOException If the index cannot be saved.
+     * @since 1.3
+     */
+    public int update() throws IOException {
+        synchronized (busy) {
+            List<String> names = Manager.listItems(directory, ".wav");
+            HashSet<String> present = new HashSet<>(names);
+            ArrayList<Callable<Entry>> stale = new ArrayList<>();
+            for (String name : names) {
+                File sound = new File(directory, name);
+                long length = sound.length(), modified = sound.lastModified();
+                Entry entry = peek(name);
+                if (entry == null || entry.length != length || entry.modified != modified)
+                    stale.add(() -> index(sound, name, length, modified));
+            }
+            synchronized (this) {
+                if (entries.keySet().retainAll(present)) dirty = true;
+            }
+            try {
+                for (Future<Entry> indexed : indexers.invokeAll(stale)) {
+                    Entry entry = indexed.get();
+                    synchronized (this) {
+                        entries.put(entry.name, entry);
+                        dirty = true;
+                    }
+                }
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException(directory.getPath());
+            } catch (ExecutionException e) { // index() doesn't throw.
+                throw new RuntimeException(e);
+            }
+            save();
+            return stale.size();
+        }
+    }
+
+    /**
+     * Runs {@code update()} on a background thread. If an update of this index is running already, no other thread
+     * is started: the running update goes once more over the repository when it's done, so it sees the files that
+     * changed meanwhile.
+     * @param then Run on the background thread after some files were indexed. Can be null.
+     * @since 1.3
+     */
+    public void updateInBackground(Runnable then) {
+        if (updateRequests.getAndIncrement() > 0) return; // Picked up by the running update.
+        Thread updater = new Thread(() -> {
+            int requests;
+            do {
+                requests = updateRequests.get();
+                try {
+                    if (update() > 0 && then != null) then.run();
+                } catch (IOException e) {
+                    System.out.println(file + " cannot be saved: " + e.getMessage());
+                }
+            } while (!updateRequests.compareAndSet(requests, 0));
+        }, "Lunchpad Index Updater");
+        updater.setDaemon(true);
+        updater.start();
+    }
+
+    /**
+     * Indexes the given sounds on a background thread if they are new or have changed, and saves the index if any
+     * was. Unlike {@code updateInBackground(...)}, the rest of the repository isn't looked at, so it's cheap enough
+     * to run after every small change.
+     * @param names Filenames of the sounds in the repository.
+     * @param then Run on the background thread after some of the sounds were indexed. Can be null.
+     * @since 1.3
+     */
+    public void indexInBackground(Collection<String> names, Runnable then) {
+        List<String> sounds = new ArrayList<>(names);
+        Thread indexer = new Thread(() -> {
+            boolean indexed = false;
+            for (String name : sounds) {
+                Entry entry = peek(name);
+                if (get(name) != entry) indexed = true; // The same entry comes back if the file hasn't changed.
+            }
+            if (!indexed) return;
+            try {
+                save();
+            } catch (IOException e) {
+                System.out.println(file + " cannot be saved: " + e.getMessage());
+            }
+            if (then != null) then.run();
+        }, "Lunchpad Index Updater");
+        indexer.setDaemon(true);
+        indexer.start();
+    }
+
+    /**
+     * Saves the index into the repository if it has changed since it was read or saved.
+     * @throws IOException If the index cannot be written.
+     * @since 1.3
+     */
+    public void save() throws IOException {
+        synchronized (busy) {
+            StringBuilder text = new StringBuilder();
+            synchronized (this) {
+                if (!dirty) return;
+                text.append("LPI ").append(VERSION).append('\n');
+                for (Entry entry : entries.values()) {
+                    String record = entry.record();
+                    text.append(crc(record)).append(' ').append(record).append('\n');
+                }
+                dirty = false;
+            }
+            File temporary = new File(file.getPath() + ".tmp");
+            try {
+                Files.write(temporary.toPath(), text.toString().getBytes(StandardCharsets.UTF_8));
+                Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                synchronized (this) { dirty = true; } // Saved again the next time.
+                temporary.delete();
+                throw e;
+            }
+        }
+    }
+
+    private void read() throws IOException {
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        if (lines.isEmpty() || !lines.get(0).equals("LPI " + VERSION)) { // Written by another version, built again.
+            dirty = true;
+            return;
+        }
+        for (int i = 1; i < lines.size(); i++) {
+            String line = lines.get(i);
+            int space = line.indexOf(' ');
+            Entry entry = null;
+            if (space > 0 && line.substring(0, space).equals(crc(line.substring(space + 1))))
+                entry = Entry.parse(line.substring(space + 1));
+            if (entry == null) dirty = true; // The line is dropped, and its file is indexed again.
+            else entries.put(entry.name, entry);
+        }
+    }
+
+    // Builds the entry of a file. A file that cannot be read or decoded gets an entry that says so.
+    static Entry index(File sound, String name, long length, long modified) {
+        try {
+            Entry entry = readWave(sound, name, length, modified);
+            return entry != null ? entry : probe(sound, name, length, modified);
+        } catch (UnsupportedAudioFileException e) {
+            System.out.println(name + " is not supported: " + e.getMessage());
+            return new Entry(name, length, modified, Status.UNSUPPORTED, "-", 0, 0, 0, 0, "-", 0, 0);
+        } catch (IOException | RuntimeException e) {
+            System.out.println(name + " is damaged: " + e.getMessage());
+            return new Entry(name, length, modified, Status.BROKEN, "-", 0, 0, 0, 0, "-", 0, 0);
+        }
+    }
+
+    /*
+     * Parses the chunks of a RIFF WAVE file, then reads the file once, hashing it and measuring the levels of the
+     * samples. Returns null if the file is not a RIFF WAVE file, or if its samples are neither PCM nor floats.
+     */
+    private static Entry readWave(File sound, String name, long length, long modified) throws IOException {
+        try (FileChannel channel = FileChannel.open(sound.toPath(), StandardOpenOption.READ)) {
+            if (length < 12) throw new EOFException(name + " is too short.");
+            ByteBuffer header = ByteBuffer.allocate(40).order(ByteOrder.LITTLE_ENDIAN);
+            header.limit(12);
+            read(channel, header, 0);
+            if (header.getInt(0) != RIFF || header.getInt(8) != WAVE) return null;
+
+            long position = 12, dataOffset = -1, dataSize = 0;
+            int format = -1, channels = 0, sampleRate = 0, blockAlign = 0, bits = 0;
+            while ((format < 0 || dataOffset < 0) && position + 8 <= length) {
+                header.clear().limit(8);
+                read(channel, header, position);
+                int id = header.getInt(0);
+                long size = header.getInt(4) & 0xFFFFFFFFL;
+                if (id == FMT) {
+                    if (size < 16) throw new IOException(name + " has a damaged format chunk.");
+                    header.clear().limit((int) Math.min(size, 40));
+                    read(channel, header, position + 8);
+                    format = header.getShort(0) & 0xFFFF;
+                    channels = header.getShort(2) & 0xFFFF;
+                    sampleRate = header.getInt(4);
+                    blockAlign = header.getShort(12) & 0xFFFF;
+                    bits = header.getShort(14) & 0xFFFF;
+                    if (format == 0xFFFE && size >= 40) format = header.getShort(24) & 0xFFFF; // WAVE_FORMAT_EXTENSIBLE
+                } else if (id == DATA) {
+                    dataOffset = position + 8;
+                    dataSize = Math.min(size, length - dataOffset); // A file that was cut plays up to where it ends.
+                }
+                position += 8 + size + (size & 1); // Chunks are padded to an even size.
+            }
+            if (format < 0) throw new IOException(name + " has no format chunk.");
+            if (dataOffset < 0) throw new IOException(name + " has no data chunk.");
+            if (channels == 0 || sampleRate <= 0 || blockAlign == 0)
+                throw new IOException(name + " has a damaged format chunk.");
+            boolean floating = format == 3 && (bits == 32 || bits == 64);
+            boolean pcm = format == 1 && (bits == 8 || bits == 16 || bits == 24 || bits == 32);
+            if (!(pcm || floating) || blockAlign != channels * bits / 8) return null; // Left to Java Sound.
+
+            MessageDigest digest = sha1();
+            Levels levels = new Levels();
+            long dataEnd = dataOffset + dataSize - dataSize % blockAlign;
+            ByteBuffer buffer = ByteBuffer.allocate(blockAlign * 8192).order(ByteOrder.LITTLE_ENDIAN);
+            for (position = 0; position < length; position += buffer.limit()) {
+                // A buffer never holds samples together with something else, and always holds whole frames.
+                long end = position < dataOffset ? dataOffset : position < dataEnd ? dataEnd : length;
+                buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+                if (!fill(channel, buffer, position)) break; // The file got shorter meanwhile.
+                buffer.flip();
+                digest.update(buffer.array(), 0, buffer.limit());
+                if (position >= dataOffset && position < dataEnd) levels.measure(buffer, bits, floating);
+            }
+            return new Entry(name, length, modified, Status.OK, floating ? "FLOAT" : "PCM", sampleRate, bits,
+                    channels, (dataEnd - dataOffset) / blockAlign, hex(digest.digest()), levels.peak, levels.rms());
+        }
+    }
+
+    // Lets Java Sound read the format of a file that isn't a plain WAVE file, and decodes it to measure its levels.
+    private static Entry probe(File sound, String name, long length, long modified)
+            throws IOException, UnsupportedAudioFileException {
+        AudioFileFormat fileFormat = AudioSystem.getAudioFileFormat(sound);
+        AudioFormat format = fileFormat.getFormat();
+        Levels levels = new Levels();
+        long decoded = 0;
+        try (SampleDecoder decoder = new SampleDecoder(sound)) {
+            short[] chunk = new short[4096 * MixerEngine.CHANNELS];
+            int frames;
+            while ((frames = decoder.read(chunk)) != -1) {
+                for (int i = 0; i < frames * MixerEngine.CHANNELS; i++) levels.add(chunk[i] / 32768f);
+                decoded += frames;
+            }
+        }
+        long frames = fileFormat.getFrameLength() != AudioSystem.NOT_SPECIFIED ? fileFormat.getFrameLength()
+                : Math.round(decoded * (double) format.getSampleRate() / MixerEngine.SAMPLE_RATE);
+        return new Entry(name, length, modified, Status.OK, format.getEncoding().toString().replace(' ', '_'),
+                Math.round(format.getSampleRate()), format.getSampleSizeInBits(), format.getChannels(), frames,
+                hash(sound), levels.peak, levels.rms());
+    }
+
+    /**
+     * Hashes the whole content of a file, the same way as the hash of the entries.
+     * @param file The file.
+     * @return The SHA-1 of the file in hex.
+     * @throws IOException If the file cannot be read.
+     * @since 1.3
+     */
+    static String hash(File file) throws IOException {
+        MessageDigest digest = sha1();
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            while (channel.read(buffer) != -1) {
+                digest.update(buffer.array(), 0, buffer.position());
+                buffer.clear();
+            }
+        }
+        return hex(digest.digest());
+    }
+
+    // Reads the buffer up to its limit from the given position of the file, or throws an EOFException.
+    private static void read(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        if (!fill(channel, buffer, position)) throw new EOFException("The file ends in the middle of a chunk.");
+    }
+
+    // Reads the buffer up to its limit from the given position of the file. Returns false if the file ends before.
+    private static boolean fill(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) return false;
+        }
+        return true;
+    }
+
+    private static MessageDigest sha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) { // Every Java platform has SHA-1.
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder text = new StringBuilder();
+        for (byte b : bytes) text.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        return text.toString();
+    }
+
+    private static String crc(String text) {
+        CRC32 crc = new CRC32();
+        crc.update(text.getBytes(StandardCharsets.UTF_8));
+        return String.format("%08x", crc.getValue());
+    }
+
+    /**
+     * Whether a sound can be played.
+     * @since 1.3
+     */
+    public enum Status {
+        OK,          // The file can be decoded
+        UNSUPPORTED, // The file is an audio file that Java Sound cannot decode, or no audio file at all
+        BROKEN       // The file is damaged, or cannot be read
+    }
+
+    // The peak and the RMS of the samples, 1 being the full scale.
+    private static final class Levels {
+        float peak;
+        double squares;
+        long count;
+
+        void add(float value) {
+            peak = Math.max(peak, Math.abs(value));
+            squares += value * (double) value;
+            count++;
+        }
+
+        void measure(ByteBuffer samples, int bits, boolean floating) {
+            while (samples.hasRemaining()) {
+                if (floating) add(bits == 32 ? samples.getFloat() : (float) samples.getDouble());
+                else if (bits == 8) add(((samples.get() & 0xFF) - 128) / 128f); // 8-bit WAVE is unsigned.
+                else if (bits == 16) add(samples.getShort() / 32768f);
+                else if (bits == 24) add(((samples.get() & 0xFF) | (samples.get() & 0xFF) << 8 | samples.get() << 16) / 8388608f);
+                else add(samples.getInt() / 2147483648f);
+            }
+        }
+
+        float rms() {
+            return count == 0 ? 0 : (float) Math.sqrt(squares / count);
+        }
+    }
+
+    /**
+     * What the index knows about a sound. The objects are immutable.
+     * @since 1.3
+     */
+    public static final class Entry {
+        public final String name;
+        public final long length, modified; // Size and modification time of the file when it was indexed
+        public final Status status;
+        public final String encoding;       // "PCM", "FLOAT", or the encoding as Java Sound calls it. "-" if unknown
+        public final int sampleRate, bits, channels;
+        public final long frames;           // Frames at the sample rate of the file
+        public final String hash;           // SHA-1 of the whole file in hex, "-" unless the file can be played
+        public final float peak, rms;       // Levels of the samples of every channel, 1 being the full scale
+
+        Entry(String name, long length, long modified, Status status, String encoding, int sampleRate, int bits,
+              int channels, long frames, String hash, float peak, float rms) {
+            this.name = name;
+            this.length = length;
+            this.modified = modified;
+            this.status = status;
+            this.encoding = encoding;
+            this.sampleRate = sampleRate;
+            this.bits = bits;
+            this.channels = channels;
+            this.frames = frames;
+            this.hash = hash;
+            this.peak = peak;
+            this.rms = rms;
+        }
+
+        public boolean isPlayable() {
+            return status == Status.OK;
+        }
+
+        /**
+         * @return The duration of the sound in seconds.
+         * @since 1.3
+         */
+        public double seconds() {
+            return sampleRate > 0 ? frames / (double) sampleRate : 0;
+        }
+
+        /**
+         * @return The number of frames of the sound once it is converted to the sample rate of the MixerEngine.
+         * @since 1.3
+         */
+        public long engineFrames() {
+            return sampleRate > 0 ? (long) Math.ceil(frames * (double) MixerEngine.SAMPLE_RATE / sampleRate) : 0;
+        }
+
+        /**
+         * @return A short description of the sound for the user, like "PCM 44.1 kHz 16-bit stereo, 1.25 s,
+         * peak -0.3 dBFS, RMS -14.2 dBFS".
+         * @since 1.3
+         */
+        public String describe() {
+            if (!isPlayable()) return status.name();
+            String layout = channels == 1 ? "mono" : channels == 2 ? "stereo" : channels + " ch";
+            return String.format(Locale.ROOT, "%s %.1f kHz %d-bit %s, %.2f s, peak %.1f dBFS, RMS %.1f dBFS",
+                    encoding, sampleRate / 1000.0, bits, layout, seconds(), decibels(peak), decibels(rms));
+        }
+
+        private static double decibels(float level) {
+            return level > 0 ? 20 * Math.log10(level) : Double.NEGATIVE_INFINITY;
+        }
+
+        private String record() {
+            return length + " " + modified + " " + status.name() + " " + encoding + " " + sampleRate + " " + bits
+                    + " " + channels + " " + frames + " " + hash + " " + peak + " " + rms + " " + name;
+        }
+
+        // Returns null if the record isn't valid.
+        private static Entry parse(String record) {
+            try {
+                String[] parts = record.split(" ", 12);
+                return new Entry(parts[11], Long.parseLong(parts[0]), Long.parseLong(parts[1]),
+                        Status.valueOf(parts[2]), parts[3], Integer.parseInt(parts[4]), Integer.parseInt(parts[5]),
+                        Integer.parseInt(parts[6]), Long.parseLong(parts[7]), parts[8], Float.parseFloat(parts[9]),
+                        Float.parseFloat(parts[10]));
+            } catch (RuntimeException e) { // Missing fields, numbers that aren't numbers, unknown statuses...
+                return null;
+            }
+        }
+    }
+}
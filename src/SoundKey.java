@@ -34,6 +34,8 @@ public class SoundKey extends JButton {
     private static final int NAME_END_INDEX = 9;
 
     public static final Insets keyMargin = new Insets(5, 0, 1, 0);
+    private final Color readyForeground; // Foreground of the key while its sound is playable
+    private VoiceSettings voiceSettings = VoiceSettings.DEFAULT; // Shared by the sounds of both channels
 
     public SoundKey(String label) {
         LABEL_PREFIX = "<html> <center>" + label + "<h6><br/>";
@@ -45,6 +47,7 @@ public class SoundKey extends JButton {
         // Aligning text to the leftside of the button
         this.setHorizontalAlignment(SwingConstants.CENTER);
         this.setMargin(keyMargin);
+        readyForeground = getForeground();
     }
 
     public String[] getClipName(){
@@ -59,6 +62,10 @@ public class SoundKey extends JButton {
 
     public String getSoundAt(int index) { return clips[index]; }
 
+    public VoiceSettings getVoiceSettings() { return voiceSettings; }
+
+    public void setVoiceSettings(VoiceSettings voiceSettings) { this.voiceSettings = voiceSettings; }
+
     public static void switchSound(int clipNumber){
         currentStreamIndex = clipNumber;
     }
@@ -69,4 +76,13 @@ public class SoundKey extends JButton {
                 + LABEL_SUFFIX);
     }
     public static int getSoundIndex(){return currentStreamIndex;}
+
+    /**
+     * Dims the label of the key while its sound is still loading.
+     * @param ready Whether the sound of the key can be played.
+     * @since 1.3
+     */
+    public void setReady(boolean ready) {
+        setForeground(ready ? readyForeground : WindowActions.LOADING_FOREGROUND);
+    }
 }
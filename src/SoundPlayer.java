@@ -14,94 +14,464 @@
  * <https://www.gnu.org/licenses/>.
  * */
 
-import javax.sound.sampled.AudioSystem;
-import javax.sound.sampled.Clip;
+import javax.sound.sampled.LineUnavailableException;
 import javax.swing.JOptionPane;
 import java.io.File;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.ResourceBundle;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * The class that keeps the sounds of the active repository and plays them through a MixerEngine.
+ * <pre></pre>
+ * Each sound is decoded only once, regardless of how many instances of it can play at the same time.
+ * The instances are the voices of the MixerEngine, which only hold a read position.
+ * <pre></pre>
+ * Sounds can be loaded in the background with {@code uploadSounds(...)}, which decodes several files at the same
+ * time. Every sound becomes playable as soon as its own file is decoded. Until then, it is pending and playing it
+ * does nothing.
+ * <pre></pre>
+ * The decoded sounds of the last {@code lunchpad.recentRepositories} (default: 3) repositories stay cached after
+ * another repository is opened, as long as the audio memory budget has room for them. When the budget is full,
+ * the sounds that were used least recently make room first. Uploading a sound that is still cached doesn't go
+ * through the loader threads at all, so switching back to a recent repository is instant.
+ * <pre></pre>
+ * If the player has the SoundIndex of the repository, the sounds whose file is damaged or in a format that cannot be
+ * decoded are skipped without opening their file, and their keys stay silent.
+ * <pre></pre>
+ * Keys are played by their index. The sounds and voice settings of the keys are given with {@code updateKeyMap(...)},
+ * and the player publishes them to the MixerEngine as an immutable KeyMap every time the mapping or a loaded sound
+ * changes. Playing a key only reads that snapshot and posts a command to the audio thread, without allocating
+ * anything.
+ */
 public class SoundPlayer {
-    private final HashMap buttonSounds;
+    private static final int RECENT_REPOSITORIES = Math.max(1, Integer.getInteger("lunchpad.recentRepositories", 3));
+
+    private final ConcurrentHashMap<String, Sample> buttonSounds;
+    private final SampleCache sampleCache; // Survives clearPlayer(), so unchanged files aren't decoded again
+    private final Set<String> pendingSounds;  // Sounds that are waiting to be decoded or being decoded
+    private final Set<String> unloadedSounds; // Sounds that didn't fit in the audio memory budget or were cancelled
+    private final List<String> unreportedSounds; // Rejected sounds that the user hasn't been told about
+    private final ExecutorService loaders; // Decodes the sounds in the background, one file per thread
+    private final MixerEngine engine;
+    private volatile SoundIndex soundIndex; // What is known about the sounds of the repository, can be null
+    private volatile String directory; // The directory of the sounds that were uploaded last
+    // The sounds of the recently used repositories by their directory, the least recently used first.
+    private final LinkedHashMap<String, Set<String>> recentRepositories = new LinkedHashMap<>(16, 0.75f, true);
+    private volatile int epoch; // Increases at every clearPlayer(), so that older loads don't fill the new player
+    private volatile String[][] mappedNames = new String[0][]; // Sound of every key in every channel, [key][channel]
+    private VoiceSettings[] mappedSettings = new VoiceSettings[0];
+    private volatile KeyMap keyMap = KeyMap.EMPTY; // The snapshot that was published last
     private static ResourceBundle bundle = ResourceBundle.getBundle("SoundPlayerStrings");
-    public static boolean playOneSound = false;
 
     public SoundPlayer(){
-        buttonSounds = new HashMap<String, Clip[]>();
+        this(createEngine());
+    }
+
+    /**
+     * Creates a SoundPlayer that plays through the given engine instead of the default output device.
+     * @param engine The engine that plays the sounds.
+     * @since 1.3
+     */
+    public SoundPlayer(MixerEngine engine){
+        buttonSounds = new ConcurrentHashMap<>();
+        sampleCache = new SampleCache();
+        pendingSounds = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        unloadedSounds = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        unreportedSounds = Collections.synchronizedList(new ArrayList<>());
+        loaders = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+            Thread loader = new Thread(r, "Lunchpad Loader");
+            loader.setDaemon(true);
+            return loader;
+        });
+        this.engine = engine;
+    }
+
+    private static MixerEngine createEngine() {
+        try {
+            return new MixerEngine();
+        } catch (LineUnavailableException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     public void uploadSound(String name, String path) {
+        if (isUnplayable(name)) return;
         try {
-            int maxIndex = 6;
-            Clip[] newClip = new Clip[maxIndex];
-            for (int i = 0; i < maxIndex; i++) {
-                newClip[i] = AudioSystem.getClip();
-                newClip[i].close();
-                try {
-                    newClip[i].open(AudioSystem.getAudioInputStream(new File(path)));
-                } catch (OutOfMemoryError e) {
-                    newClip[i].close();
-                    JOptionPane.showMessageDialog(null,
-                            bundle.getString("SP_ERR"),
-                            bundle.getString("SP_ERR_TTL"),
-                            JOptionPane.INFORMATION_MESSAGE, null);
-                    System.exit(0);
-                }
+            buttonSounds.put(name, sampleCache.get(new File(path)));
+            unloadedSounds.remove(name);
+        } catch (AudioMemory.BudgetExceededException e) {
+            // The key keeps its sound, it just stays silent. The user is told by reportRejected().
+            System.out.println(e.getMessage());
+            if(unloadedSounds.add(name)) unreportedSounds.add(name);
+        } catch(Exception e) { // A broken file leaves its key silent, like in Loading.load().
+            System.out.println(name + " cannot be played: " + e);
+            unloadedSounds.add(name);
+        }
+        publishKeyMap();
+    }
+
+    /**
+     * Loads the given sounds of the directory in the background, decoding several files at the same time.
+     * The sounds that are still cached, for example because the repository was used recently, don't go through the
+     * loader threads: they are playable and counted as loaded as soon as this method returns.
+     * The listener is told about every loaded sound and about the end of the load, from a loader thread, or from
+     * the calling thread for the cached sounds and for a load that is done right away.
+     * @param directory The directory that contains the sounds, ending with a separator.
+     * @param names The filenames of the sounds, in the order they should be loaded.
+     * @param listener Notified as the load goes on. Can be null.
+     * @return The load in progress, which can be cancelled.
+     * @since 1.3
+     */
+    public Loading uploadSounds(String directory, Collection<String> names, LoadListener listener){
+        this.directory = directory;
+        ArrayList<String> cached = new ArrayList<>(), uncached = new ArrayList<>();
+        for (String name : names) {
+            Sample sample = pendingSounds.contains(name) ? null : sampleCache.getIfCached(new File(directory + name));
+            if (sample == null) {
+                uncached.add(name);
+            } else {
+                buttonSounds.put(name, sample);
+                unloadedSounds.remove(name);
+                cached.add(name);
             }
-            buttonSounds.put(name, newClip);
-        } catch(Exception e) {
-            System.out.println("!!!!!!!" + name);
-            throw new RuntimeException(e);
         }
+        ArrayList<String> all = new ArrayList<>(cached);
+        all.addAll(uncached);
+        Loading loading = new Loading(directory, all, listener);
+        pendingSounds.addAll(uncached);
+        publishKeyMap(); // Pending keys are silent for now, they shouldn't be taken for missing ones.
+        if (loading.total == 0) loading.finish();
+        for (String name : cached) loading.loaded(name);
+        for (String name : uncached) loaders.execute(() -> loading.load(name, directory + name));
+        return loading;
+    }
+
+    /**
+     * Brings the player up-to-date with the given sounds of the directory without reloading everything.
+     * Sounds that are not in the list anymore are unloaded. Sounds that are new, or whose file has a different
+     * size or modification time than when it was decoded, are loaded in the background. The rest stays as is.
+     * @param directory The directory that contains the sounds, ending with a separator.
+     * @param names The filenames of the sounds that should be loaded. The files must exist.
+     * @param listener Notified as the load of the new and changed sounds goes on. Can be null.
+     * @return The load of the new and changed sounds, which can be cancelled.
+     * @since 1.3
+     */
+    public Loading reconcile(String directory, Collection<String> names, LoadListener listener){
+        HashSet<String> wanted = new HashSet<>(names);
+        for (String name : buttonSounds.keySet()) {
+            if (!wanted.contains(name)) {
+                buttonSounds.remove(name);
+                sampleCache.remove(new File(directory + name));
+            }
+        }
+        unloadedSounds.retainAll(wanted);
+        publishKeyMap();
+
+        ArrayList<String> changed = new ArrayList<>();
+        for (String name : names) {
+            if (pendingSounds.contains(name)) continue; // Already on its way.
+            Sample loaded = buttonSounds.get(name);
+            if (loaded == null || !sampleCache.isCurrent(new File(directory + name), loaded)) changed.add(name);
+        }
+        return uploadSounds(directory, changed, listener);
     }
 
     public void clearPlayer(){
+        rememberRepository(); // Its sounds stay cached, so switching back to it is instant.
+        epoch++;
+        engine.stopAll(); // The voices shouldn't keep playing the sounds of the previous repository.
         buttonSounds.clear();
+        pendingSounds.clear();
+        unloadedSounds.clear();
+        unreportedSounds.clear();
+        sampleCache.unpinAll(); // Cached sounds that aren't uploaded again can make room for the new ones.
+        publishKeyMap();
     }
 
-    public void playSound(String playedSound) throws NullPointerException{
-        Clip[] playedClip = (Clip[]) buttonSounds.get(playedSound);
-        try {
-            /*
-            If you notice the actual for-loop below is problematic by chance, delete it and uncomment this loop.
-            for (Clip temp : playedClip) {
-                if (!temp.isRunning()) {
-                    temp.setMicrosecondPosition(0);
-                    temp.start();
-                    break;
-                }
-            }*/
-            
-            for (int i = 0; i < playedClip.length; i++) {
-                                               /////////////////////If malfunctions delete "|| playOneSound"
-                if (!playedClip[i].isRunning() || playOneSound) {
-                    playedClip[i].setMicrosecondPosition(0);
-                    playedClip[i].stop();
-                    playedClip[i].start();
-                    //System.out.println(i);
-                    break;
-                                                   /////////////////////If malfunctions delete "&& !playOneSound"
-                } else if(i == playedClip.length-1 && !playOneSound) {
-                    playedClip[0].setMicrosecondPosition(0);
-                    //System.out.println("playing first");
-                    break;
-                }
+    /**
+     * Sets the cache on disk where the decoded sounds are kept across restarts, see AudioDiskCache.
+     * @param diskCache The disk cache, or null to disable it.
+     * @since 1.3
+     */
+    public void setDiskCache(AudioDiskCache diskCache){
+        sampleCache.setDiskCache(diskCache);
+    }
+
+    /**
+     * Sets the index of the repository, so that the sounds that cannot be played are skipped and the others
+     * aren't probed before they are decoded. Call it before uploading the sounds of the repository.
+     * @param index The index, or null to open every file.
+     * @since 1.3
+     */
+    public void setIndex(SoundIndex index){
+        soundIndex = index;
+        sampleCache.setIndex(index);
+    }
+
+    // Checks the sound in the index, and marks it as unloaded if its file cannot be played. An entry that is missing
+    // or outdated isn't indexed here, that would read the whole file once more before it is decoded.
+    private boolean isUnplayable(String name){
+        SoundIndex index = soundIndex;
+        SoundIndex.Entry entry = index != null ? index.peek(name) : null;
+        if (entry == null || entry.isPlayable()) return false;
+        File file = new File(index.directory, name);
+        if (entry.length != file.length() || entry.modified != file.lastModified()) return false;
+        System.out.println(name + " cannot be played: " + entry.status);
+        unloadedSounds.add(name);
+        return true;
+    }
 
+    /**
+     * Lets the sounds that were loaded before the index knew their file be shared with the identical sounds that
+     * are loaded from now on. Call it after the index of the repository has been updated.
+     * @since 1.3
+     */
+    public void indexUpdated(){
+        sampleCache.adoptHashes();
+    }
+
+    /**
+     * Sets the compiled pack of the repository, so that its unchanged sounds are mapped instead of decoded.
+     * Call it before uploading the sounds of the repository.
+     * @param pack The pack, or null if the repository has none.
+     * @since 1.3
+     */
+    public void setPack(RepositoryPack pack){
+        sampleCache.setPack(pack);
+    }
+
+    /**
+     * Sets the sound and the voice settings of every key, and publishes them to the audio thread.
+     * Call it every time the mapping or the settings of a key change.
+     * @param names Filename of the sound of every key in every channel, indexed as [key][channel].
+     *              null or "None" for keys without a sound.
+     * @param settings The voice settings of every key.
+     * @since 1.3
+     */
+    public synchronized void updateKeyMap(String[][] names, VoiceSettings[] settings){
+        String[][] copy = new String[names.length][];
+        for (int i = 0; i < names.length; i++) copy[i] = names[i].clone();
+        mappedNames = copy;
+        mappedSettings = settings.clone();
+        publishKeyMap();
+    }
+
+    // Resolves the mapped names to the loaded samples and gives the result to the audio thread.
+    private synchronized void publishKeyMap(){
+        String[][] names = mappedNames;
+        Sample[][] samples = new Sample[names.length][];
+        byte[][] states = new byte[names.length][];
+        for (int key = 0; key < names.length; key++) {
+            samples[key] = new Sample[names[key].length];
+            states[key] = new byte[names[key].length];
+            for (int channel = 0; channel < names[key].length; channel++) {
+                String name = names[key][channel];
+                if (name == null || name.isEmpty() || name.equals("None")) {
+                    states[key][channel] = KeyMap.UNASSIGNED;
+                    continue;
+                }
+                samples[key][channel] = buttonSounds.get(name);
+                // Pending and skipped sounds are silent for now, but their key keeps its sound.
+                states[key][channel] = samples[key][channel] != null || pendingSounds.contains(name)
+                        || unloadedSounds.contains(name) ? KeyMap.ASSIGNED : KeyMap.MISSING;
             }
-        } catch (Exception e){
-            throw new NullPointerException();
         }
+        keyMap = new KeyMap(samples, states, mappedSettings);
+        engine.publish(keyMap);
+    }
+
+    /**
+     * Tells the user which sounds could not be loaded because the audio memory budget is full, if there are any
+     * that haven't been reported yet. Call it after uploading sounds.
+     * @since 1.3
+     */
+    public void reportRejected(){
+        String rejected;
+        synchronized (unreportedSounds) {
+            if(unreportedSounds.isEmpty()) return;
+            rejected = String.join(", ", unreportedSounds);
+            unreportedSounds.clear();
+        }
+        JOptionPane.showMessageDialog(null,
+                bundle.getString("SP_ERR") + "\n" + rejected,
+                bundle.getString("SP_ERR_TTL"),
+                JOptionPane.WARNING_MESSAGE, null);
+    }
+
+    /**
+     * Drops the decoded sounds that were cached for a previous load but are not uploaded anymore, except for the
+     * sounds of the recently used repositories. Call it after every sound of the repository has been uploaded.
+     * @since 1.3
+     */
+    public void releaseUnused(){
+        ArrayList<File> recent = new ArrayList<>();
+        synchronized (recentRepositories) {
+            rememberRepository();
+            for (Map.Entry<String, Set<String>> repository : recentRepositories.entrySet())
+                for (String name : repository.getValue()) recent.add(new File(repository.getKey() + name));
+        }
+        sampleCache.retainAll(buttonSounds.values(), recent);
+    }
+
+    // Makes the repository of the uploaded sounds the most recently used one, and forgets the oldest ones.
+    private void rememberRepository(){
+        synchronized (recentRepositories) {
+            String current = directory;
+            if (current == null || buttonSounds.isEmpty()) return;
+            recentRepositories.put(current, new HashSet<>(buttonSounds.keySet()));
+            while (recentRepositories.size() > RECENT_REPOSITORIES)
+                recentRepositories.remove(recentRepositories.keySet().iterator().next());
+        }
+    }
+
+    /**
+     * @param name Filename of the sound.
+     * @return Whether the sound is loaded and can be played.
+     * @since 1.3
+     */
+    public boolean isLoaded(String name){
+        return name != null && buttonSounds.containsKey(name);
+    }
+
+    /**
+     * @param name Filename of the sound.
+     * @return Whether the sound is waiting to be decoded or being decoded at the moment.
+     * @since 1.3
+     */
+    public boolean isPending(String name){
+        return name != null && pendingSounds.contains(name);
+    }
+
+    /**
+     * @param name Filename of the sound.
+     * @return Whether the sound was skipped, because the audio memory budget is full, because its load was
+     * cancelled, or because its file cannot be played. The key stays silent, but keeps its sound.
+     * @since 1.3
+     */
+    public boolean isUnloaded(String name){
+        return name != null && unloadedSounds.contains(name);
+    }
+
+    /**
+     * Plays the sound of the given key. The sound starts on the audio thread, this method doesn't wait for it.
+     * @param key Index of the key in the arrays given to {@code updateKeyMap(...)}.
+     * @param channel The channel whose sound should be played.
+     * @param restart Whether the playing instances of the sound should be replaced, like when Shift is held.
+     * @param pressedAt The {@code System.nanoTime()} at which the key was pressed, the start of the latency that
+     * is recorded for the trigger.
+     * @return false if the key has a sound that the player doesn't know, for example because its file is gone.
+     * true if the sound was played, if it is silent for now because it's still loading, or if the key has no sound,
+     * in which case nothing happens.
+     */
+    public boolean playKey(int key, int channel, boolean restart, long pressedAt){
+        byte state = keyMap.stateAt(key, channel);
+        if (state == KeyMap.MISSING) return false;
+        if (state == KeyMap.ASSIGNED) engine.trigger(key, channel, restart, pressedAt);
+        return true;
     }
 
     public void stopSound() {
-        Set<String> sounds = buttonSounds.keySet();
-        for(String key : sounds){
-            for(Clip clip : (Clip[]) buttonSounds.get(key)){
-                if (clip != null && clip.isRunning()){
-                    clip.stop();
+        engine.stopAll();
+    }
+
+    /**
+     * @return The latencies from the key presses to the sounds leaving the output line, by key.
+     * @since 1.3
+     */
+    public LatencyStats getLatencyStats() {
+        return engine.getLatencyStats();
+    }
+
+    /**
+     * Receives the progress of a load started by {@code uploadSounds(...)}. The methods are called from
+     * a loader thread, so they should pass the work to the event dispatch thread to update the GUI.
+     * @since 1.3
+     */
+    public interface LoadListener {
+        void soundLoaded(Loading loading, String name);
+        void loadFinished(Loading loading);
+    }
+
+    /**
+     * A load started by {@code uploadSounds(...)}.
+     * @since 1.3
+     */
+    public class Loading {
+        public final String directory; // The directory of the sounds, ending with a separator
+        public final List<String> names; // The sounds of the load, in no particular order
+        public final int total;
+        private final AtomicInteger done = new AtomicInteger();
+        private final LoadListener listener;
+        private final int loadEpoch = epoch;
+        private volatile boolean cancelled;
+
+        private Loading(String directory, List<String> names, LoadListener listener) {
+            this.directory = directory;
+            this.names = Collections.unmodifiableList(names);
+            this.total = names.size();
+            this.listener = listener;
+        }
+
+        /**
+         * Stops the load. The sounds that are not decoded yet are skipped and their keys stay silent.
+         * @since 1.3
+         */
+        public void cancel() { cancelled = true; }
+
+        public boolean isCancelled() { return cancelled; }
+
+        public int getDone() { return done.get(); }
+
+        // Runs on a loader thread for every sound of the load.
+        private void load(String name, String path) {
+            try {
+                if (loadEpoch != epoch) return; // The player has been cleared since the load started.
+                if (cancelled) {
+                    unloadedSounds.add(name);
+                    return;
+                }
+                if (isUnplayable(name)) return;
+                Sample sample = sampleCache.get(new File(path));
+                if (loadEpoch == epoch) {
+                    buttonSounds.put(name, sample);
+                    unloadedSounds.remove(name);
+                }
+            } catch (AudioMemory.BudgetExceededException e) {
+                System.out.println(e.getMessage());
+                if (unloadedSounds.add(name)) unreportedSounds.add(name);
+            } catch (Exception e) { // A broken file shouldn't stop the rest of the repository from loading.
+                System.out.println(name + " cannot be played: " + e);
+                unloadedSounds.add(name);
+            } finally {
+                if (loadEpoch == epoch) {
+                    pendingSounds.remove(name);
+                    publishKeyMap(); // The key becomes playable right now, not at the end of the load.
                 }
+                loaded(name);
             }
         }
+
+        // Counts the sound as done, and finishes the load after its last sound.
+        private void loaded(String name) {
+            if (listener != null) listener.soundLoaded(this, name);
+            if (done.incrementAndGet() == total) finish();
+        }
+
+        private void finish() {
+            // Once the player has everything it needs, the leftovers of the previous repository can go.
+            if (!cancelled && loadEpoch == epoch && pendingSounds.isEmpty()) releaseUnused();
+            if (listener != null) listener.loadFinished(this);
+        }
     }
 }
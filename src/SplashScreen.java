@@ -14,25 +14,23 @@
  * <https://www.gnu.org/licenses/>.
  * */
 
-import javax.imageio.ImageIO;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
-import javax.swing.ImageIcon;
+import javax.swing.JProgressBar;
 import javax.swing.SwingConstants;
 import java.awt.*;
-import java.util.Objects;
 import java.util.ResourceBundle;
 
 public class SplashScreen {
     public JFrame baseFrame;
+    private final JProgressBar progress;
     public SplashScreen() throws  java.io.IOException {
         baseFrame = new JFrame();
         baseFrame.setUndecorated(true);
         baseFrame.setSize(500, 340);
         baseFrame.getContentPane().setBackground(WindowActions.BLACK_COLOR);
 
-        JLabel logo = new JLabel(new ImageIcon(ImageIO.read(Objects.requireNonNull(getClass().getResource("/Artworks/logo2.png")))
-                .getScaledInstance(500, 276, Image.SCALE_SMOOTH)));
+        JLabel logo = new JLabel(Artwork.icon("logo2.png", 500, 276));
 
         logo.setBounds(0, 0,500, 266);
         baseFrame.getContentPane().add(logo);
@@ -43,7 +41,26 @@ public class SplashScreen {
         text.setBounds(0, 270, 500, 60);
         baseFrame.add(text);
 
+        // Shows how far the startup tasks are.
+        progress = new JProgressBar();
+        progress.setBounds(150, 322, 200, 6);
+        progress.setBorderPainted(false);
+        progress.setBackground(WindowActions.BLACK_COLOR);
+        progress.setForeground(WindowActions.BOX_CARET);
+        baseFrame.add(progress);
+
         WindowActions.centerWindow(baseFrame);
         baseFrame.setLayout(null);
     }
+
+    /**
+     * Shows the progress of the startup. Must be called from the event dispatch thread.
+     * @param done Number of finished steps.
+     * @param total Number of steps.
+     * @since 1.3
+     */
+    public void setProgress(int done, int total) {
+        progress.setMaximum(total);
+        progress.setValue(done);
+    }
 }
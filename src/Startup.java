@@ -0,0 +1,226 @@
+/*
+ * Lunchpad - A Launchpad/Soundboard application.
+ * This file is part of Lunchpad.
+ *
+ * Lunchpad is free software: you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * Lunchpad is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Lunchpad. If not, see
+ * <https://www.gnu.org/licenses/>.
+ * */
+
+import javax.swing.SwingUtilities;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.LinkedHashSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.prefs.Preferences;
+
+/**
+ * The startup of Lunchpad, run as tasks in parallel instead of one after the other.
+ * <pre></pre>
+ * While the main thread sets the Look And Feel and shows the splash screen, background threads open the audio
+ * device, create the folder of the repositories, decode and scale the artworks, and start loading the
+ * sounds of the repository that was open last. If the user chooses that repository again, its sounds are
+ * already decoded, or on their way. The splash screen shows the progress of the tasks, and it is closed as
+ * soon as they are finished.
+ * <pre></pre>
+ * The time from the start of the application to the first playable key is printed on the console, without the
+ * time that the user spends choosing the repository.
+ * <pre>Ex:
+ *      {@code
+ *      Startup startup = Startup.begin();
+ *      // Set the Look And Feel, show the splash screen...
+ *      startup.await(splashScreen);
+ *      MainWindow win = new MainWindow(repository, startup.getPlayer());
+ *      }
+ * </pre>
+ * @since 1.3
+ */
+final class Startup {
+    static final String REPOSITORIES = System.getProperty("user.home") + "/LunchPad Repositories/";
+    private static final String LAST_REPOSITORY = "lastRepository";
+
+    // Times of the startup, in System.nanoTime(). Guarded by Startup.class
+    private static long startedAt, userTime, windowShownAt, playableAt;
+    private static boolean reported;
+
+    private final String lastRepository = lastRepository();
+    private final CompletableFuture<SoundPlayer> player;
+    private final CompletableFuture<?>[] tasks;
+    private volatile SoundPlayer.Loading preload; // The load of the last repository, null until it starts
+
+    private Startup() {
+        CompletableFuture<Void> folder = CompletableFuture.runAsync(Startup::createFolder);
+        CompletableFuture<Void> artwork = CompletableFuture.runAsync(Artwork::warmUp)
+                .exceptionally(e -> {
+                    System.out.println("Artwork warm-up failed: " + e);
+                    return null;
+                });
+        player = CompletableFuture.supplyAsync(MainWindow::createPlayer);
+        CompletableFuture<LastRepository> scan = folder.thenApplyAsync(v -> scan(lastRepository))
+                .exceptionally(e -> {
+                    System.out.println("Cannot read the last repository: " + e);
+                    return null;
+                });
+        CompletableFuture<Void> preloaded = player.thenAcceptBoth(scan, this::preload);
+        tasks = new CompletableFuture<?>[]{folder, artwork, player, scan, preloaded};
+    }
+
+    /**
+     * Starts the startup tasks in the background.
+     * @return The running startup.
+     * @since 1.3
+     */
+    static Startup begin() {
+        synchronized (Startup.class) {
+            startedAt = System.nanoTime();
+        }
+        return new Startup();
+    }
+
+    /**
+     * Waits for the startup tasks, showing their progress on the splash screen. The load of the last repository
+     * isn't waited for, it goes on in the background.
+     * @param splash The splash screen.
+     * @since 1.3
+     */
+    void await(SplashScreen splash) {
+        CompletableFuture<Void> all = CompletableFuture.allOf(tasks);
+        while (true) {
+            int done = 0;
+            for (CompletableFuture<?> task : tasks) if (task.isDone()) done++;
+            final int shown = done;
+            SwingUtilities.invokeLater(() -> splash.setProgress(shown, tasks.length));
+            try {
+                all.get(50, TimeUnit.MILLISECONDS);
+                return;
+            } catch (TimeoutException e) {
+                // Not finished yet, the progress is shown again.
+            } catch (InterruptedException | ExecutionException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * @return The sound player created during the startup, which may already be loading the last repository.
+     * @since 1.3
+     */
+    SoundPlayer getPlayer() {
+        return player.join();
+    }
+
+    /**
+     * Tells the startup which repository the user chose. If it isn't the last repository, its load is cancelled.
+     * @param repository Name of the chosen repository.
+     * @since 1.3
+     */
+    void chosen(String repository) {
+        SoundPlayer.Loading loading = preload;
+        if (loading != null && !repository.equals(lastRepository)) loading.cancel();
+    }
+
+    /**
+     * Remembers the repository that is open, so that it is loaded during the next startup.
+     * @param repository Name of the repository.
+     * @since 1.3
+     */
+    static void rememberRepository(String repository) {
+        Preferences.userNodeForPackage(Startup.class).put(LAST_REPOSITORY, repository);
+    }
+
+    private static String lastRepository() {
+        return Preferences.userNodeForPackage(Startup.class).get(LAST_REPOSITORY, null);
+    }
+
+    /**
+     * Adds time that the startup spent waiting for the user, which isn't counted in the time to the first
+     * playable key.
+     * @param nanos The waited time.
+     * @since 1.3
+     */
+    static synchronized void userWaited(long nanos) {
+        userTime += nanos;
+    }
+
+    /**
+     * Marks the moment the main window is shown.
+     * @since 1.3
+     */
+    static synchronized void windowShown() {
+        if (windowShownAt == 0) windowShownAt = System.nanoTime();
+        report();
+    }
+
+    /**
+     * Marks the moment the first sound of the open repository is loaded.
+     * @since 1.3
+     */
+    static synchronized void soundPlayable() {
+        if (playableAt == 0) playableAt = System.nanoTime();
+        report();
+    }
+
+    // Prints the time to the first playable key, once both the window and a sound are ready.
+    private static void report() {
+        if (reported || startedAt == 0 || windowShownAt == 0 || playableAt == 0) return;
+        reported = true;
+        long ready = Math.max(windowShownAt, playableAt) - startedAt - userTime;
+        System.out.println("First key playable after " + ready / 1_000_000 + " ms");
+    }
+
+    private static void createFolder() {
+        try {
+            Files.createDirectories(Paths.get(REPOSITORIES));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // Finds the sounds of the last repository that are assigned to a key and whose file exists.
+    private static LastRepository scan(String name) {
+        if (name == null || !new File(REPOSITORIES + name).isDirectory()) return null;
+        LastRepository last = new LastRepository(REPOSITORIES + name + "/");
+        File directory = new File(last.directory);
+        last.pack = RepositoryPack.openIfPresent(directory);
+        last.index = SoundIndex.of(directory);
+        try {
+            for (String[] channels : KeyMappingStore.read(directory, last.pack))
+                for (String sound : channels)
+                    if (sound.endsWith(".wav") && new File(directory, sound).isFile()) last.sounds.add(sound);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return last;
+    }
+
+    private void preload(SoundPlayer player, LastRepository last) {
+        if (last == null || last.sounds.isEmpty()) return;
+        player.setPack(last.pack);
+        player.setIndex(last.index);
+        preload = player.uploadSounds(last.directory, last.sounds, null);
+    }
+
+    // The sounds of the repository that was open last.
+    private static final class LastRepository {
+        final String directory;
+        final LinkedHashSet<String> sounds = new LinkedHashSet<>();
+        RepositoryPack pack;
+        SoundIndex index;
+
+        LastRepository(String directory) {
+            this.directory = directory;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+/*
+ * Lunchpad - A Launchpad/Soundboard application.
+ * This file is part of Lunchpad.
+ *
+ * Lunchpad is free software: you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * Lunchpad is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Lunchpad. If not, see
+ * <https://www.gnu.org/licenses/>.
+ * */
+
+/**
+ * Decides which playing voice the MixerEngine takes over when a sound is triggered but there is no room for
+ * a new voice, either because the sound reached its voice limit or because every voice of the engine is busy.
+ * @since 1.3
+ */
+public enum StealPolicy {
+    OLDEST,          // The voice that started first
+    QUIETEST,        // The voice with the lowest level in the last mixed block
+    LOWEST_PRIORITY, // The voice with the lowest priority, if it isn't higher than the priority of the new sound
+    NEVER            // No voice is taken over, the new trigger is dropped
+}
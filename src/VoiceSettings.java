@@ -0,0 +1,56 @@
+/*
+ * Lunchpad - A Launchpad/Soundboard application.
+ * This file is part of Lunchpad.
+ *
+ * Lunchpad is free software: you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * Lunchpad is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Lunchpad. If not, see
+ * <https://www.gnu.org/licenses/>.
+ * */
+
+/**
+ * The class that holds how the MixerEngine should allocate voices for the sound of a key.
+ * <pre></pre>
+ * The objects are immutable, so a key can share its settings with the engine without copying them.
+ * <pre>Ex:
+ *      {@code
+ *      VoiceSettings drums = new VoiceSettings(16, 0, StealPolicy.QUIETEST, false);
+ *      }
+ * </pre>
+ * @since 1.3
+ */
+public final class VoiceSettings {
+    public static final int MAX_VOICE_LIMIT = 32;
+    public static final VoiceSettings DEFAULT = new VoiceSettings(6, 0, StealPolicy.OLDEST, false);
+
+    public final int voiceLimit;            // Voices that can play the sound at the same time
+    public final int priority;              // Used by StealPolicy.LOWEST_PRIORITY, higher values win
+    public final StealPolicy stealPolicy;   // What happens when the sound reaches its voice limit
+    public final boolean retrigger;         // Whether a new trigger restarts the sound instead of layering it
+
+    public VoiceSettings(int voiceLimit, int priority, StealPolicy stealPolicy, boolean retrigger) {
+        this.voiceLimit = Math.max(1, Math.min(MAX_VOICE_LIMIT, voiceLimit));
+        this.priority = priority;
+        this.stealPolicy = stealPolicy;
+        this.retrigger = retrigger;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof VoiceSettings)) return false;
+        VoiceSettings other = (VoiceSettings) o;
+        return voiceLimit == other.voiceLimit && priority == other.priority
+                && stealPolicy == other.stealPolicy && retrigger == other.retrigger;
+    }
+
+    @Override
+    public int hashCode() {
+        return ((voiceLimit * 31 + priority) * 31 + stealPolicy.hashCode()) * 31 + (retrigger ? 1 : 0);
+    }
+}
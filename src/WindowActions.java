@@ -34,6 +34,7 @@ public class WindowActions {
                        BOX_BACKGROUND = new Color(0x1D1C1C),
                        BAR_BACKGROUND = new Color(0x272727),
                        PRESSED_KEY_BACKGROUND = new Color(0xAF3C02),
+                       LOADING_FOREGROUND = new Color(0x6A6A6A),
                        BOX_CARET = new Color(0XB8B8B8);
 
     /**